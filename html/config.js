@@ -16,6 +16,10 @@ od.config = {
          function config_url ( category ) {
             return od.data_path + '/' + ( category ? category.toLowerCase() + '/_index.js'
                                                                : 'index.js' ); },
+      "tokens" :
+         function config_url ( category ) { return od.data_path + '/' + category.toLowerCase() + '/_tokens.js'; },
+      "trigrams" :
+         function config_url ( category ) { return od.data_path + '/' + category.toLowerCase() + '/_trigrams.js'; },
       "data" :
          function config_url ( category, id ) {
             var matches = id.match( /(\d{1,2})$/ ) || [];
@@ -98,6 +98,8 @@ od.data.Category.prototype = {
    "columns": [], // e.g. [ "Name","SourceBook","Level", ... ]
    "list" : [],   // e.g. [ {ID:"sampleId001", SourceBook": { "text":"Multiple", "set": ["Git","Csv"] }, ... ]
    "index": {},   // e.g. { "sampleId001":"Sample Data 1 Published in ...", ... }
+   "tokens": null, // e.g. { "sample": "0,1,3", ... } Row gaps in base 36; decoded to array on first use.
+   "trigrams": null, // e.g. { "sam": "0,1,3", "e 1": "~1F", "ple": "*" } Row gaps, ~bitmap, or * for common.
    "map" : {},   // e.g. { "sampleId001": (point to same item in list), ... }
    "data" : {},   // e.g. { "sampleId001": "<h1 class='player'>Sample Data 1</h1><p class='flavor'>..." }, ... }
 
@@ -117,7 +119,15 @@ od.data.Category.prototype = {
    },
 
    "load_index" : function data_Cat_load_index ( ondone, onerror ) {
-      od.reader.read_data_index( this.name, ondone, onerror );
+      var name = this.name;
+      od.reader.read_data_index( name, function data_Cat_load_index_done () {
+         // Search still works without tokens and trigrams
+         od.reader.read_data_tokens( name, function data_Cat_load_index_tokens () {
+            od.reader.read_data_trigrams( name, ondone, ondone );
+         }, function data_Cat_load_index_no_tokens () {
+            od.reader.read_data_trigrams( name, ondone, ondone );
+         } );
+      }, onerror );
    },
 
    "load_data" : function data_Cat_load_data ( id, ondone, onerror ) {
@@ -123,6 +123,38 @@ od.reader = {
 
    /////////////////////////////////////////////////////////
 
+   // Tokens is an optional inverted index of full text, used to narrow down search before regex test.
+
+   read_data_tokens: function reader_read_data_tokens( category, onload, onerror ) {
+      var path = od.config.url.tokens( category );
+      this._read(
+         path,
+         function(){ return od.data.get(category).tokens ? true : false; },
+         onload,
+         onerror ); // Old export does not have tokens
+   },
+
+   jsonp_data_tokens: function reader_jsonp_data_tokens( version, category, data ) {
+      od.data.get( category ).tokens = od.reader._inflate( "token index", data );
+   },
+
+   // Trigrams is an optional index of three letter substrings, used to narrow down phrase, wildcard, and regex search.
+
+   read_data_trigrams: function reader_read_data_trigrams( category, onload, onerror ) {
+      var path = od.config.url.trigrams( category );
+      this._read(
+         path,
+         function(){ return od.data.get(category).trigrams ? true : false; },
+         onload,
+         onerror ); // Old export does not have trigrams
+   },
+
+   jsonp_data_trigrams: function reader_jsonp_data_trigrams( version, category, data ) {
+      od.data.get( category ).trigrams = od.reader._inflate( "trigram index", data );
+   },
+
+   /////////////////////////////////////////////////////////
+
    // Data is an individual data item.
 
    read_data: function reader_read_data( category, id, onload, onerror ) {
@@ -76,7 +76,7 @@ od.search = {
                if ( cat.map[ term ] )
                   cache[ cat.name ] = result = [ cat.map[ term ] ];
                else
-                  cache[ cat.name ] = result = search( cat.list );
+                  cache[ cat.name ] = result = search( cat );
                count[ cat.name ] = result.length;
                _.time( '[Search] Search done, ' + result.length + ' result(s).' );
             }
@@ -92,7 +92,7 @@ od.search = {
                      if ( cat.map[ term ] )
                         cache[ cat.name ] = data = [ cat.map[ term ] ];
                      else
-                        cache[ cat.name ] = data = search( cat.list );
+                        cache[ cat.name ] = data = search( cat );
                      count[ cat.name ] = data.length;
                   }
                   if ( data.length <= 0 ) return;
@@ -105,15 +105,19 @@ od.search = {
          }
          done( result, count );
 
-         function search( lst ) {
+         function search( cat ) {
             var regx = pattern.regexp;
-            var result = lst.filter( function search_search_filter ( row ) {
+            var rows = type === 'full' ? od.search.candidates( cat, pattern.fragments ) : null;
+            var tri = type === 'full' ? od.search.trigram_candidates( cat, pattern.literals ) : null;
+            var result = cat.list.filter( function search_search_filter ( row, i ) {
                if ( type !== 'full' ) {
                   // Name search. Just try to match name.
                   return regx.test( row.Name );
                } else {
                   // Full body search.  If does not have exclude term, try name first. If fail or has exclude then do full body.
                   if ( ( ! pattern.hasExclude ) && regx.test( row.Name ) ) return true;
+                  if ( rows && ! rows[ i ] ) return false; // Not in token index, skip regex
+                  if ( tri && ! tri[ i ] ) return false; // Not in trigram index
                   return regx.test( row._category.index[ row.ID ] );
                }
             } );
@@ -206,6 +210,131 @@ od.search = {
       }
    },
 
+   /**
+    * Find rows that may match all include terms, using token index of the category.
+    * A word matches any token that contains it, since terms are not matched word by word.
+    *
+    * @param {Object} cat Category with loaded listing and (optional) tokens.
+    * @param {Array} groups Fragments from gen_search: AND of groups, OR of terms, AND of words.
+    * @return {Uint8Array} Row flags, non-zero if row is a candidate, or null if cannot narrow down.
+    */
+   "candidates" : function data_search_candidates ( cat, groups ) {
+      var tokens = cat.tokens, size = cat.list.length, result = null;
+      if ( ! tokens || ! groups || ! groups.length ) return null;
+      groups.forEach( function data_search_candidates_group ( group ) {
+         var any = new Uint8Array( size );
+         group.forEach( function data_search_candidates_term ( words ) {
+            var all = null;
+            words.forEach( function data_search_candidates_word ( word ) {
+               var found = new Uint8Array( size );
+               for ( var token in tokens ) {
+                  if ( token.indexOf( word ) < 0 ) continue;
+                  var list = tokens[ token ];
+                  if ( typeof( list ) === 'string' ) list = tokens[ token ] = od.search.decode_rows( list );
+                  for ( var i = 0, l = list.length ; i < l ; i++ ) found[ list[ i ] ] = 1;
+               }
+               if ( all ) for ( var i = 0 ; i < size ; i++ ) all[ i ] &= found[ i ];
+               else all = found;
+            } );
+            for ( var i = 0 ; i < size ; i++ ) any[ i ] |= all[ i ];
+         } );
+         if ( result ) for ( var i = 0 ; i < size ; i++ ) result[ i ] &= any[ i ];
+         else result = any;
+      } );
+      return result;
+   },
+
+   /**
+    * Find rows that may match all include terms, using trigram index of the category.
+    *
+    * @param {Object} cat Category with loaded listing and (optional) trigrams.
+    * @param {Array} groups Literals from gen_search: AND of groups, OR of terms, AND of literals.
+    * @return {Uint8Array} Row flags, non-zero if row is a candidate, or null if cannot narrow down.
+    */
+   "trigram_candidates" : function data_search_trigram_candidates ( cat, groups ) {
+      var trigrams = cat.trigrams, size = cat.list.length, result = null;
+      if ( ! trigrams || ! groups || ! groups.length ) return null;
+      groups.forEach( function data_search_trigram_candidates_group ( group ) {
+         var any = new Uint8Array( size );
+         group.forEach( function data_search_trigram_candidates_term ( literals ) {
+            var all = null;
+            literals.forEach( function data_search_trigram_candidates_literal ( literal ) {
+               literal = od.search.fold( literal );
+               for ( var i = 0 ; i + 3 <= literal.length ; i++ ) {
+                  var found = trigrams[ literal.substr( i, 3 ) ];
+                  if ( found === '*' ) continue; // Common trigram
+                  found = found ? od.search.decode_trigram( found, size ) : new Uint8Array( size );
+                  if ( all ) for ( var j = 0 ; j < size ; j++ ) all[ j ] &= found[ j ];
+                  else all = found;
+               }
+            } );
+            if ( ! all ) { // All trigrams are common
+               all = new Uint8Array( size );
+               for ( var i = 0 ; i < size ; i++ ) all[ i ] = 1;
+            }
+            for ( var i = 0 ; i < size ; i++ ) any[ i ] |= all[ i ];
+         } );
+         if ( result ) for ( var i = 0 ; i < size ; i++ ) result[ i ] &= any[ i ];
+         else result = any;
+      } );
+      return result;
+   },
+
+   /** Fold text like the exporter: lower case ascii letters, turn other non-word characters into space. */
+   "fold" : function data_search_fold ( text ) {
+      return text.replace( /[A-Z]+/g, function( e ){ return e.toLowerCase(); } ).replace( /\W/g, ' ' );
+   },
+
+   /** Decode trigram rows, either base 36 row gaps or ~bitmap, into row flags. */
+   "decode_trigram" : function data_search_decode_trigram ( data, size ) {
+      var result = new Uint8Array( size ), i, l;
+      if ( data.charAt( 0 ) === '~' ) {
+         var digits = od.search.BITMAP_DIGITS;
+         for ( i = 1, l = data.length ; i < l ; i++ ) {
+            var bits = digits.indexOf( data.charAt( i ) ), base = ( i - 1 ) * 6;
+            for ( var b = 0 ; b < 6 ; b++ ) if ( bits & ( 1 << b ) ) result[ base + b ] = 1;
+         }
+      } else {
+         var rows = od.search.decode_rows( data );
+         for ( i = 0, l = rows.length ; i < l ; i++ ) result[ rows[ i ] ] = 1;
+      }
+      return result;
+   },
+
+   "BITMAP_DIGITS" : "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz-_",
+
+   /**
+    * Extract literals that must appear in any match of a regular expression.
+    * Conservative: gives up on alternation and groups, and drops characters made optional by ?, *, or {.
+    */
+   "regex_literals" : function data_search_regex_literals ( src ) {
+      var result = [], run = '';
+      if ( /[|(]/.test( src ) ) return result;
+      for ( var i = 0, l = src.length ; i < l ; i++ ) {
+         var c = src.charAt( i );
+         switch ( c ) {
+            case '\\' : i++; break; // Escape, e.g. \d or \.
+            case '[' : while ( i < l && src.charAt( i ) !== ']' ) i++; break;
+            case '?' : case '*' : run = run.slice( 0, -1 ); break;
+            case '{' : run = run.slice( 0, -1 ); while ( i < l && src.charAt( i ) !== '}' ) i++; break;
+            case '+' : case '.' : case '^' : case '$' : case ')' : break;
+            default  : run += c; continue;
+         }
+         result.push( run );
+         run = '';
+      }
+      result.push( run );
+      return result.filter( function( e ){ return e.length >= 3; } );
+   },
+
+   /** Decode comma separated base 36 row gaps into ascending row numbers. */
+   "decode_rows" : function data_search_decode_rows ( data ) {
+      var parts = data.split( ',' ), row = 0;
+      for ( var i = 0, l = parts.length ; i < l ; i++ )
+         parts[ i ] = row += parseInt( parts[ i ], 36 );
+      return parts;
+   },
+
    /** Sort given data and returns a copy. */
    'sort_data' : function data_search_sort_data ( data, sort_field, direction ) {
       var sorter, ab = direction === 'asc' ? 1 : -1, ba = ab * -1;
@@ -244,11 +373,13 @@ od.search = {
     * Example : javascript OR ecmascript "bug database"
     *
     * @param {String} terms  Terms to search for
-    * @return {Array} return { 'regexp': RegExp for searching, 'highlight': ["highlight 1", "highlight 2", ... ], 'hasExclude': true/false }
+    * @return {Array} return { 'regexp': RegExp for searching, 'highlight': ["highlight 1", "highlight 2", ... ], 'hasExclude': true/false,
+    *                          'fragments': [ [ ["word", ...], ... ], ... ] Words of include terms for candidates(),
+    *                          'literals': [ [ ["text", ...], ... ], ... ] Literals of include terms for trigram_candidates() }
     *                        OR null (if terms turn out to be empty conditions)
     */
    "gen_search" : function search_gen_search ( terms ) {
-      var hl = [], hasExclude = false;
+      var hl = [], hasExclude = false, fragments = [], literals = [];
       var regx = "^";
       // Break down search input into tokens
       var parts = terms.trim().match( /(^| )\/.+\/(?= |$)|[+-]?(?:"[^"]+"|\S+)/g );
@@ -262,7 +393,7 @@ od.search = {
 
       for ( var i = 0 ; i < l ; ) {
          // Contains all parts joined by OR, e.g. a OR b OR c >>> ['(?=.*a.*)','(?=.*b.*)','(?=.*c.*)']
-         var addPart = [];
+         var addPart = [], addFrag = [], addLit = [];
          do {
             var term = parts[i].trim();
             var part = "";
@@ -272,6 +403,7 @@ od.search = {
                term = term.substr(1);
                part += '(?!.*'; // Exclude
                hasExclude = true;
+               addFrag = addLit = null; // Cannot narrow down OR group with exclusion
             } else {
                if ( term.charAt(0) === '+' ) {
                   term = term.substr(1);
@@ -280,6 +412,20 @@ od.search = {
                part += '(?=.*'; // Include
             }
             if ( term ) {
+               // Words for token index. Regular expression, NIL, and terms with unescaped | ^ $ cannot be narrowed down.
+               var is_plain = ! /^\/.+\/$/.test( term ) && term !== 'NIL' && ! /[|^$]/.test( term );
+               if ( addFrag ) {
+                  var words = is_plain ? term.toLowerCase().split( /\W+/ ).filter( Boolean ) : [];
+                  if ( words.length ) addFrag.push( words );
+                  else addFrag = null;
+               }
+               // Literals for trigram index: phrase and wildcard split by *, plain parts of regular expression.
+               if ( addLit ) {
+                  var lits = /^\/.+\/$/.test( term ) ? od.search.regex_literals( term.substr( 1, term.length-2 ) )
+                        : ! is_plain ? [] : term.replace( /^"|"$/g, '' ).split( '*' ).filter( function( e ){ return e.length >= 3; } );
+                  if ( lits.length ) addLit.push( lits );
+                  else addLit = null;
+               }
                // Regular expression is used as is.
                if ( /^\/.+\/$/.test( term ) ) {
                   term = term.substr( 1, term.length-2 );
@@ -319,6 +465,8 @@ od.search = {
             // Next token is OR, so move to next non-OR token.
             do { ++i; } while ( i < l && parts[i] === 'OR' );
          } while ( i < l );
+         if ( addFrag && addFrag.length ) fragments.push( addFrag );
+         if ( addLit && addLit.length ) literals.push( addLit );
          // Append to global search pattern
          if ( addPart.length === 1 ) {
             regx += addPart[0];
@@ -328,7 +476,7 @@ od.search = {
       }
       if ( regx === '^' ) return null;
       _.info( "[Search] Regx: " + regx );
-      return { 'regexp': RegExp( regx, 'i' ), 'highlight': hl.length ? hl : null, 'hasExclude': hasExclude };
+      return { 'regexp': RegExp( regx, 'i' ), 'highlight': hl.length ? hl : null, 'hasExclude': hasExclude, 'fragments': fragments, 'literals': literals };
    }
 
 };
\ No newline at end of file
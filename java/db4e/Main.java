@@ -41,12 +41,14 @@ public class Main {
    static final Preferences prefs = Preferences.userNodeForPackage( Main.class );
    public static final AtomicBoolean debug = new AtomicBoolean( false );
    public static final AtomicBoolean simulate = new AtomicBoolean( false ); // Simulate data download without getting real data.
+   private static String[] arguments = new String[0];
 
    // Main method. No need to check java version because min version is compile target.
    public static void main( String[] args ) {
       if ( simulate.get() && ! VERSION.contains( "(development)" ) )
          simulate.set( false );
       log.setLevel( Level.CONFIG );
+      arguments = args;
       try {
          Class.forName( "javafx.stage.Stage" ); // OpenJDK does not come with JavaFX by default
          MainApp.run( args );
@@ -57,6 +59,21 @@ public class Main {
       }
    }
 
+   /**
+    * Get value of a command line argument in the form of --name=value.
+    *
+    * @param name Argument name without leading dashes
+    * @param defaultValue Value to return if argument is not given
+    * @return Argument value
+    */
+   public static String getArgument ( String name, String defaultValue ) {
+      final String prefix = "--" + name + "=";
+      for ( String arg : arguments )
+         if ( arg.startsWith( prefix ) )
+            return arg.substring( prefix.length() );
+      return defaultValue;
+   }
+
    public static CompletableFuture<Optional<Boolean>> checkUpdate ( boolean forceCheck ) {
       if ( ! forceCheck ) {
          try {
@@ -2,10 +2,12 @@ package db4e;
 
 import db4e.controller.Controller;
 import static db4e.controller.Controller.DEF_INTERVAL_MS;
+import static db4e.controller.Controller.DEF_PRIORITY;
 import static db4e.controller.Controller.DEF_RETRY_COUNT;
 import static db4e.controller.Controller.DEF_TIMEOUT_MS;
 import static db4e.controller.Controller.MIN_INTERVAL_MS;
 import static db4e.controller.Controller.MIN_TIMEOUT_MS;
+import db4e.converter.ConvertPipeline;
 import db4e.data.Category;
 import db4e.exporter.ExporterMain;
 import java.awt.Desktop;
@@ -96,16 +98,22 @@ public class SceneMain extends Scene {
            "Minimal interval, in millisecond, between each download action." );
    final TextField txtRetry  = JavaFX.tooltip( new TextField( Integer.toString( Math.max( 0, prefs.getInt( "download.retry", DEF_RETRY_COUNT ) ) ) ),
            "Number of timeout retry.  Only apply to timeout errors." );
+   final TextField txtPriority  = JavaFX.tooltip( new TextField( prefs.get( "download.priority", DEF_PRIORITY ) ),
+           "Download order weight by category id, 1 to 16.  Unlisted categories weight 1." );
    final TextField txtThread  = JavaFX.tooltip( new TextField( Integer.toString( Math.max( 0, prefs.getInt( "export.thread", 0 ) ) ) ),
            "More thread exports faster but use more memory.  0 = Auto" );
    private final CheckBox chkFixAndEnhance = JavaFX.tooltip( new CheckBox( "Fix and enhance data" ),
            "Fix known issues in the data, make them consistent, add or enhance data properties, and ignore flavor text in full search." );
+   private final CheckBox chkPipeline = JavaFX.tooltip( new CheckBox( "Convert data while downloading" ),
+           "Pre-convert entries in background as they are downloaded, so that the next export is faster.  Uses more memory." );
    private final CheckBox chkCompress = JavaFX.tooltip( new CheckBox( "Compress exported data" ),
            "Compress exported data files.  Actual speedup or slowdown depends on data speed, browser, and hardware." );
    private final CheckBox chkDebug = JavaFX.tooltip( new CheckBox( "Show debug tabs" ),
            "Show program log and console, and enable internal data assertions.  Will slow down download & export and use more memory." );
    final Button btnClearData = JavaFX.tooltip( new Button( "Clear Downloaded Data" ), // Allow downloader access, to allow clear when db is down
            "Clear ALL downloaded data by deleting '" + Controller.DB_NAME + "'." );
+   final Button btnRefreshData = JavaFX.tooltip( new Button( "Refresh Data" ),
+           "Download all listings again, then download only entries that are new or changed." );
    final Button btnExportData = JavaFX.tooltip( new Button( "Dump Data" ),
            "Dump data in plain formats, such as Excel or CSV.  Uncheck \"Fix and enhance data\" above to export raw data." );
    final Button btnCheckUpdate = JavaFX.tooltip( new Button( "Check update" ),
@@ -114,11 +122,13 @@ public class SceneMain extends Scene {
            new HBox( 8, new Label( "Timeout in" ), txtTimeout, new Label( "seconds.") ),
            new HBox( 8, new Label( "Throttle" ), txtInterval, new Label( "milliseconds (minimal) per request.") ),
            new HBox( 8, new Label( "Retry" ), txtRetry, new Label( "times on timeout.") ),
+           new HBox( 8, new Label( "Download" ), txtPriority, new Label( "first.") ),
            new HBox( 8, new Label( "Export in" ), txtThread, new Label( "threads (0 = Auto)") ),
            chkFixAndEnhance,
+           chkPipeline,
            chkCompress,
            chkDebug,
-           new HBox( 8, btnClearData, btnExportData ),
+           new HBox( 8, btnClearData, btnRefreshData, btnExportData ),
            btnCheckUpdate );
    private final Tab tabOption = new Tab( "Options", pnlOptionTab );
 
@@ -144,8 +154,9 @@ public class SceneMain extends Scene {
          Controller.TIMEOUT_MS = Integer.parseUnsignedInt( txtTimeout.getText() ) * 1000;
          Controller.INTERVAL_MS = Integer.parseUnsignedInt( txtInterval.getText() );
          Controller.RETRY_COUNT = Integer.parseUnsignedInt( txtRetry.getText() );
+         Controller.setPriority( txtPriority.getText() );
          loader.setThreadCount( Integer.parseUnsignedInt( txtThread.getText() ) );
-      } catch ( NumberFormatException ignored ) {}
+      } catch ( IllegalArgumentException ignored ) {}
       setRoot( pnlC );
    }
 
@@ -191,6 +202,12 @@ public class SceneMain extends Scene {
          log.log( Level.CONFIG, "Retry count changed to {0}", i );
       } catch ( NumberFormatException ignored ) { } } );
 
+      txtPriority.textProperty().addListener( (prop, old, now ) -> { try {
+         Controller.setPriority( now );
+         prefs.put( "download.priority", now );
+         log.log( Level.CONFIG, "Download priority changed to {0}", now );
+      } catch ( IllegalArgumentException ignored ) { } } );
+
       txtThread.textProperty().addListener( (prop, old, now ) -> { try {
          int i = Integer.parseUnsignedInt( now );
          if ( i < 0 ) return;
@@ -199,6 +216,7 @@ public class SceneMain extends Scene {
       } catch ( NumberFormatException ignored ) { } } );
 
       setupCheckbox( chkFixAndEnhance, "export.fix", true, this::chkFix_change );
+      setupCheckbox( chkPipeline, "download.convert", true, this::chkPipeline_change );
       setupCheckbox( chkDebug, "gui.debug", false, this::chkDebug_change );
       if ( loader.canCompressData() ) {
          setupCheckbox( chkCompress, "export.compress", false, this::chkCompress_change );
@@ -209,6 +227,7 @@ public class SceneMain extends Scene {
       }
 
       btnClearData.addEventHandler( ActionEvent.ACTION, this::btnClearData_click );
+      btnRefreshData.addEventHandler( ActionEvent.ACTION, this::btnRefreshData_click );
       btnExportData.addEventHandler( ActionEvent.ACTION, this::action_export_raw );
       btnCheckUpdate.addEventHandler( ActionEvent.ACTION, this::btnCheckUpdate_click );
 
@@ -304,6 +323,7 @@ public class SceneMain extends Scene {
       chkFixAndEnhance.setDisable( false );
       btnLeft.setDisable( false );
       btnClearData.setDisable( false );
+      btnRefreshData.setDisable( false );
       btnExportData.setDisable( false );
    }
 
@@ -313,6 +333,7 @@ public class SceneMain extends Scene {
       chkFixAndEnhance.setDisable( true );
       btnLeft.setDisable( true );
       btnClearData.setDisable( true );
+      btnRefreshData.setDisable( true );
       btnExportData.setDisable( true );
    }
 
@@ -410,15 +431,21 @@ public class SceneMain extends Scene {
    }
 
    private void action_download ( ActionEvent evt ) {
+      if ( ! checkLogin() ) return;
+      setStatus( "Starting download" );
+      loader.startDownload();
+      stateRunning();
+   }
+
+   private boolean checkLogin () {
       if ( txtUser.getText().trim().isEmpty() || txtPass.getText().trim().isEmpty() ) {
          new Alert( Alert.AlertType.ERROR, "Please input DDI username and password", ButtonType.OK ).showAndWait();
+         pnlC.getSelectionModel().select( tabData );
          if ( txtUser.getText().trim().isEmpty() ) txtUser.requestFocus();
          else txtPass.requestFocus();
-         return;
+         return false;
       }
-      setStatus( "Starting download" );
-      loader.startDownload();
-      stateRunning();
+      return true;
    }
 
    private void action_view ( ActionEvent evt ) {
@@ -483,7 +510,10 @@ public class SceneMain extends Scene {
             new FileChooser.ExtensionFilter( "TSV (fixed filenames)", "race.tsv" ),
             new FileChooser.ExtensionFilter( "JSON", "*.json" ),
             new FileChooser.ExtensionFilter( "SQL", "*.sql" ),
-            new FileChooser.ExtensionFilter( "HTML", "*.html", "*.htm" ) );
+            new FileChooser.ExtensionFilter( "SQLite", "*.sqlite", "*.db" ),
+            new FileChooser.ExtensionFilter( "Columnar binary", "*.d4c" ),
+            new FileChooser.ExtensionFilter( "HTML", "*.html", "*.htm" ),
+            new FileChooser.ExtensionFilter( "HTML (zip)", "*.zip" ) );
          dlgExportRaw.setInitialFileName( "raw_compendium.xlsx" );
       }
       File target = dlgExportRaw.showSaveDialog( getWindow() );
@@ -550,6 +580,7 @@ public class SceneMain extends Scene {
       txtPass.setDisable( true );
       chkFixAndEnhance.setDisable( true );
       btnClearData.setDisable( true );
+      btnRefreshData.setDisable( true );
       btnExportData.setDisable( true );
       setLeft( "Stop", this::action_stop );
    } ); }
@@ -567,6 +598,12 @@ public class SceneMain extends Scene {
       Controller.fixData = newValue;
    }
 
+   private void chkPipeline_change ( ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue ) {
+      prefs.putBoolean( "download.convert", newValue );
+      ConvertPipeline.enabled.set( newValue );
+      if ( ! newValue ) ConvertPipeline.clear();
+   }
+
    private void chkCompress_change ( ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue ) {
       prefs.putBoolean( "export.compress", newValue );
       ExporterMain.compress.set( newValue );
@@ -606,6 +643,14 @@ public class SceneMain extends Scene {
       pnlC.getSelectionModel().select( tabData );
    }
 
+   private void btnRefreshData_click ( ActionEvent evt ) {
+      if ( ! checkLogin() ) return;
+      setStatus( "Starting refresh" );
+      loader.startDownload( true );
+      stateRunning();
+      pnlC.getSelectionModel().select( tabData );
+   }
+
    private void btnCheckUpdate_click ( ActionEvent evt ) {
       checkUpdate( true );
    }
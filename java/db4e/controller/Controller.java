@@ -3,15 +3,19 @@ package db4e.controller;
 import db4e.Main;
 import db4e.SceneMain;
 import db4e.converter.Convert;
+import db4e.converter.ConvertPipeline;
 import db4e.converter.Converter;
 import db4e.data.Category;
+import db4e.data.ContentCache;
 import db4e.data.Entry;
 import db4e.exporter.Exporter;
 import db4e.exporter.ExporterMain;
+import db4e.exporter.ExporterRawColumnar;
 import db4e.exporter.ExporterRawCsv;
 import db4e.exporter.ExporterRawHtml;
 import db4e.exporter.ExporterRawJson;
 import db4e.exporter.ExporterRawSql;
+import db4e.exporter.ExporterRawSqlite;
 import db4e.exporter.ExporterRawTsv;
 import db4e.exporter.ExporterRawXlsx;
 import java.io.File;
@@ -70,10 +74,12 @@ public class Controller {
    public static final int DEF_TIMEOUT_MS = 30_000;
    public static final int DEF_INTERVAL_MS = 1_000;
    public static final int DEF_RETRY_COUNT = 5;
+   public static final String DEF_PRIORITY = "Power:8,Feat:4,Item:4,Monster:4"; // Most used categories first. Unlisted categories weight 1.
 
    public static volatile int TIMEOUT_MS = DEF_TIMEOUT_MS;
    public static volatile int INTERVAL_MS = DEF_INTERVAL_MS;
    public static volatile int RETRY_COUNT = DEF_RETRY_COUNT;
+   public static volatile String PRIORITY = DEF_PRIORITY;
    public static volatile boolean fixData = true;
 
    public static final int MIN_LZMA_MEMORY = 494*1024*1024; // Actual heap memory when max heap is set to 512mb
@@ -96,6 +102,8 @@ public class Controller {
    private ConsoleWebView browser;
    private WebEngine engine;
    private Crawler crawler;
+   private CrawlRecorder recorder; // Set by --record=folder
+   private ReplayServer replay; // Set by --replay=folder
    private final Timer scheduler = new Timer();
    private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor( 2, 32, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
 
@@ -120,6 +128,16 @@ public class Controller {
       log.log( Level.CONFIG, "Thread count set to {0} plus one controll thread", thread - 1 );
    }
 
+   /**
+    * Set download priority, e.g. "Power:8,Feat:4".
+    * @param priority Comma separated category id and weight (1 to 16).
+    * @throws IllegalArgumentException If the setting is malformed.
+    */
+   public static void setPriority ( String priority ) {
+      DownloadQueue.parsePriority( priority );
+      PRIORITY = priority;
+   }
+
    public void stop () {
       synchronized ( this ) {
          if ( engine != null )
@@ -201,6 +219,8 @@ public class Controller {
          gui.setStatus( "Clearing data" );
          gui.setProgress( -1.0 );
          synchronized ( categories ) { categories.clear(); }
+         ContentCache.clear();
+         Convert.reset();
          state.reset();
          state.total = 0;
          hasReset = true;
@@ -216,6 +236,9 @@ public class Controller {
                } else {
                   log.log( Level.WARNING, "Database file not found: {0}", new File( DB_NAME ).getAbsolutePath() );
                }
+               final File snapshot = Snapshot.fileOf( file );
+               if ( snapshot.exists() && ! snapshot.delete() )
+                  log.log( Level.WARNING, "Cannot delete snapshot {0}", snapshot.getAbsolutePath() ); // It is stamped and will be ignored
                synchronized ( this ) { entityLoaded = entityLoadedFuture = new CompletableFuture<>(); }
                Thread.sleep( 500 ); // Give OS some time to delete the file
                open( null );
@@ -269,6 +292,7 @@ public class Controller {
 
    public void close () {
       stop();
+      if ( replay != null ) replay.stop();
       scheduler.cancel();
       threadPool.shutdown();
       closeDb();
@@ -277,6 +301,7 @@ public class Controller {
    private synchronized void closeDb () {
       if ( db != null ) try {
          log.log( Level.FINE, "Closing database" );
+         if ( dal != null ) dal.close();
          db.close();
          db = null;
          dal = null;
@@ -319,7 +344,8 @@ public class Controller {
          threadPool.execute( () -> {
             try {
                state.reset();
-               dal.loadEntityContent( categories, state );
+               dal.loadEntityContent( categories, state, true );
+               if ( ! dal.isFromSnapshot() ) saveSnapshot();
                synchronized ( this ) { entityLoadedFuture.complete( null ); }
             } catch (SqlJetException ex) {
                synchronized ( this ) { entityLoadedFuture.completeExceptionally( ex ); }
@@ -329,6 +355,17 @@ public class Controller {
       state.update();
    }
 
+   /**
+    * Save a snapshot of the database for faster startup.  Failure is logged and ignored.
+    */
+   private void saveSnapshot () {
+      try {
+         dal.saveSnapshot();
+      } catch ( Exception ex ) {
+         log.log( Level.WARNING, "Cannot save snapshot: {0}", stacktrace( ex ) );
+      }
+   }
+
    /**
     * If current database is bigger than last backup, update the backup.
     */
@@ -360,10 +397,37 @@ public class Controller {
       browser = gui.getWorker();
       engine = browser.getWebEngine();
       crawler = new Crawler( engine );
+      try {
+         final String recordPath = Main.getArgument( "record", null );
+         if ( recordPath != null )
+            recorder = new CrawlRecorder( new File( recordPath ) );
+         final String replayPath = Main.getArgument( "replay", null );
+         if ( replayPath != null ) {
+            replay = new ReplayServer( new File( replayPath ) );
+            replay.latencyMs = Integer.parseInt( Main.getArgument( "replay-latency", "0" ) );
+            replay.jitterMs = Integer.parseInt( Main.getArgument( "replay-jitter", "0" ) );
+            replay.errorRate = Double.parseDouble( Main.getArgument( "replay-error", "0" ) );
+            replay.hangRate = Double.parseDouble( Main.getArgument( "replay-hang", "0" ) );
+            crawler.setSite( replay.start( 0 ) );
+         }
+      } catch ( Exception ex ) {
+         log.log( Level.SEVERE, "Cannot setup crawl record or replay: {0}", stacktrace( ex ) );
+         throw new IllegalStateException( "Cannot setup crawl record or replay", ex );
+      }
    }
 
    // Open compendium
    public CompletableFuture<Void> startDownload () {
+      return startDownload( false );
+   }
+
+   /**
+    * Start downloading listing and entries.
+    *
+    * @param refresh If true, re-download all listings and re-download only new or changed entries.
+    * @return A future that completes when download ends.
+    */
+   public CompletableFuture<Void> startDownload ( boolean refresh ) {
       gui.setTitle( "Downloading" );
       gui.stateRunning();
       gui.setProgress( -1.0 );
@@ -374,19 +438,20 @@ public class Controller {
          setPriority( Thread.NORM_PRIORITY );
          if ( Main.simulate.get() )
             log.info( "Login check skipped for simulation" );
-         else if ( sync( categories ).stream().anyMatch( e -> e.total_entry.get() <= 0 ) )
+         else if ( refresh || sync( categories ).stream().anyMatch( e -> e.total_entry.get() <= 0 ) )
             runAndCheckLogin( "Testing login", crawler::randomGlossary );
-         downloadCategory();
+         downloadCategory( refresh );
          downloadEntities();
+         saveSnapshot();
          gui.stateCanExport( "Download complete, may export data" );
       } ).whenComplete( terminate( "Download", gui::stateCanDownload ) );
    }
 
-   private void downloadCategory() throws Exception { // Too many exceptions to throw one by one
+   private void downloadCategory ( boolean refresh ) throws Exception { // Too many exceptions to throw one by one
       TransformerFactory factory = null;
 
       for ( Category category : sync( categories ) ) synchronized( category ) {
-         if ( category.total_entry.get() > 0 ) continue;
+         if ( ! refresh && category.total_entry.get() > 0 ) continue;
          String name = category.name.toLowerCase();
 
          runAndGet( "Getting " + name + " template", () ->
@@ -396,6 +461,7 @@ public class Controller {
          runAndGet( "Getting " + name + " data", () ->
             crawler.getCategoryData( category ) );
          Document xml = engine.getDocument();
+         if ( recorder != null ) recorder.recordCategory( category, xsl, xml );
 
          checkStop( "Parsing " + name );
          if ( factory == null ) factory = TransformerFactory.newInstance();
@@ -408,27 +474,50 @@ public class Controller {
 
          checkStop( "Saving " + name );
          dal.saveEntryList( category, entries );
+         category.downloaded_entry.set( (int) entries.stream().filter( Entry::hasContent ).count() );
 
          checkStop( "Listed " + name );
       }
       state.total = categories.stream().mapToInt( c -> c.total_entry.get() ).sum();
-      state.update();
+      state.set( categories.stream().mapToInt( c -> c.downloaded_entry.get() ).sum() );
    }
 
    private void downloadEntities () throws Exception {
       Instant[] pastFinishTime = new Instant[ 64 ]; // Past 64 finish time
       int remainingCount = state.total - state.get(), second;
-      for ( Category category : sync( categories ) ) synchronized( category ) {
-         for ( Entry entry : category.entries ) synchronized ( entry ) {
-            if ( entry.hasContent() ) continue;
 
-            String jobName = entry.getName() + " (" + category.name + ")";
-            runAndCheckLogin( jobName, () -> crawler.openEntry( entry ) );
-            crawler.getEntry( entry );
-            dal.saveEntry( entry );
+      // Resume from last position if queue is unchanged, then wrap around to pick up anything missed.
+      final DownloadQueue queue = new DownloadQueue( sync( categories ), PRIORITY );
+      final int size = queue.size();
+      int start = 0;
+      if ( queue.getSignature().equals( dal.loadConfig( "queue_signature" ) ) ) try {
+         start = Math.min( Integer.parseInt( dal.loadConfig( "queue_position" ) ), size );
+      } catch ( NumberFormatException ignored ) { }
+      else
+         dal.saveConfig( "queue_signature", queue.getSignature() );
+      log.log( Level.CONFIG, "Download priority {0}, starting at {1} of {2}", new Object[]{ PRIORITY, start, size } );
 
-            category.downloaded_entry.set( category.downloaded_entry.get() + 1 );
-            state.addOne();
+      int pos = start;
+      try {
+         for ( int i = 0 ; i < size ; i++ ) {
+            pos = ( start + i ) % size;
+            final Category category = queue.getCategory( pos );
+            final Entry entry = queue.getEntry( pos );
+            synchronized( category ) { synchronized ( entry ) {
+               if ( entry.hasContent() ) continue;
+
+               String jobName = entry.getName() + " (" + category.name + ")";
+               runAndCheckLogin( jobName, () -> crawler.openEntry( entry ) );
+               crawler.getEntry( entry );
+               if ( recorder != null ) recorder.recordEntry( entry );
+               dal.saveEntry( entry );
+               if ( fixData ) ConvertPipeline.submit( category, entry );
+
+               category.downloaded_entry.set( category.downloaded_entry.get() + 1 );
+               state.addOne();
+            } }
+            if ( remainingCount % 32 == 0 )
+               dal.saveConfig( "queue_position", Integer.toString( pos ) );
 
             --remainingCount;
             if ( remainingCount > 0 ) {
@@ -452,7 +541,11 @@ public class Controller {
                else                      gui.setTitle( second + "s remain" );
             }
          }
-      }
+      } finally { try {
+         dal.saveConfig( "queue_position", Integer.toString( pos ) );
+      } catch ( SqlJetException ex ) {
+         log.log( Level.WARNING, "Cannot save download position: {0}", stacktrace( ex ) );
+      } }
    }
 
    /////////////////////////////////////////////////////////////////////////////
@@ -500,7 +593,7 @@ public class Controller {
             checkStop( "Writing catlog" );
             try ( Exporter exporter = new ExporterMain() ) {
                exporter.setState( target, this::checkStop, state );
-               doExport( exporter, "Writing data" );
+               doExport( exporter, "Writing data", target );
             }
             log.log( Level.INFO, "Data exported in {0}ns", System.nanoTime() - startNs );
             gui.stateCanExport( "Export complete, may view data" );
@@ -510,7 +603,7 @@ public class Controller {
 
    public void startExportRaw ( File target ) {
       Exporter exporter;
-      if ( target.getName().toLowerCase().endsWith( ".html" ) || target.getName().toLowerCase().endsWith( ".htm" ) )
+      if ( target.getName().toLowerCase().endsWith( ".html" ) || target.getName().toLowerCase().endsWith( ".htm" ) || target.getName().toLowerCase().endsWith( ".zip" ) )
          exporter = new ExporterRawHtml();
       else if ( target.getName().toLowerCase().endsWith( ".csv" ) )
          exporter = new ExporterRawCsv();
@@ -522,8 +615,12 @@ public class Controller {
          exporter = new ExporterRawSql();
       else if ( target.getName().toLowerCase().endsWith( ".xlsx" ) )
          exporter = new ExporterRawXlsx();
+      else if ( target.getName().toLowerCase().endsWith( ".sqlite" ) || target.getName().toLowerCase().endsWith( ".db" ) )
+         exporter = new ExporterRawSqlite();
+      else if ( target.getName().toLowerCase().endsWith( ".d4c" ) )
+         exporter = new ExporterRawColumnar();
       else {
-         new Alert( Alert.AlertType.ERROR, "Unknown file type. Must be html, csv, tsv, json, or xlsx.", ButtonType.OK ).showAndWait();
+         new Alert( Alert.AlertType.ERROR, "Unknown file type. Must be html, zip, csv, tsv, json, sql, sqlite, d4c, or xlsx.", ButtonType.OK ).showAndWait();
          return;
       }
       exporter.setState( target, this::checkStop, state );
@@ -536,7 +633,7 @@ public class Controller {
             final long startNs = System.nanoTime();
             checkStop( "Dumping catalog" );
             try ( Exporter exp = exporter ) {
-               doExport( exp, "Dumping data" );
+               doExport( exp, "Dumping data", target );
             }
             log.log( Level.INFO, "Raw data dumped in {0}ns", System.nanoTime() - startNs );
             gui.stateCanExport( "Raw data dumped" );
@@ -544,7 +641,8 @@ public class Controller {
       }
    }
 
-   private void doExport( Exporter exporter, String dataMessage ) throws Exception {
+   private void doExport( Exporter exporter, String dataMessage, File target ) throws Exception {
+      dal.loadEntityContent( categories, state, true ); // Load entries that are listed or downloaded after startup
       final List<Category> data;
       if ( fixData ) {
          log.log( Level.CONFIG, "Fix enabled. Converting data." );
@@ -556,7 +654,7 @@ public class Controller {
       exportEachCategory( data, exporter );
       exporter.postExport( data );
       if ( fixData ) {
-         Convert.afterConvert();
+         Convert.afterConvert( new File( target.getAbsoluteFile().getParentFile(), target.getName().replaceFirst( "\\.[^.]*$", "" ) + "_corrections.json" ) );
       }
    }
 
@@ -675,11 +773,14 @@ public class Controller {
                      converter.convert();
                   converter.mapIndex();
                   exporter.export( category );
-                  if ( fixData ) // The converted data is no longer required.  Kill them to save memory
+                  if ( fixData ) { // The converted data is no longer required.  Kill them to save memory
                      category.entries.clear();
+                     category.listing = null;
+                  }
                }
                future.complete( null );
             } catch ( Throwable e ) {
+               exporter.abort();
                future.completeExceptionally( e );
             } } );
          }
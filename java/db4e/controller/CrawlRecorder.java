@@ -0,0 +1,79 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Document;
+
+/**
+ * Record crawled category templates, category data, and entry contents to a local folder,
+ * which can then be served by ReplayServer to test the crawler offline.
+ *
+ * Only data that is actually crawled is recorded, so start from an empty database to record everything.
+ */
+class CrawlRecorder {
+
+   private static final Logger log = Main.log;
+
+   private final File root;
+   private final Transformer serializer;
+
+   CrawlRecorder ( File root ) throws TransformerException {
+      this.root = root;
+      serializer = TransformerFactory.newInstance().newTransformer();
+      log.log( Level.CONFIG, "Recording crawl to {0}", root.getAbsolutePath() );
+   }
+
+   /**
+    * Map a compendium path to a recorded file name.
+    *
+    * @param path Path relative to compendium root, e.g. "xsl/Power.xsl" or "power.aspx?id=123"
+    * @return File path relative to record root.
+    */
+   static String toFileName ( String path ) {
+      if ( path.startsWith( "xsl/" ) )
+         return path;
+      if ( path.startsWith( "CompendiumSearch.asmx/ViewAll?tab=" ) )
+         return "xml/" + path.substring( path.indexOf( '=' ) + 1 ) + ".xml";
+      return "entry/" + path.replace( '?', '_' ) + ".html";
+   }
+
+   synchronized void recordCategory ( Category category, Document xsl, Document xml ) throws IOException, TransformerException {
+      write( toFileName( "xsl/" + category.id + ".xsl" ), serialise( xsl ) );
+      write( toFileName( "CompendiumSearch.asmx/ViewAll?tab=" + category.id ), serialise( xml ) );
+   }
+
+   void recordEntry ( Entry entry ) throws IOException {
+      final String id, content;
+      synchronized ( entry ) {
+         id = entry.getId();
+         content = entry.getContent();
+      }
+      write( toFileName( id ), content );
+   }
+
+   private String serialise ( Document doc ) throws TransformerException {
+      StringWriter result = new StringWriter();
+      serializer.transform( new DOMSource( doc ), new StreamResult( result ) );
+      return result.toString();
+   }
+
+   private void write ( String name, String content ) throws IOException {
+      File file = new File( root, name );
+      file.getParentFile().mkdirs();
+      Files.write( file.toPath(), content.getBytes( UTF_8 ) );
+      log.log( Level.FINER, "Recorded {0}", name );
+   }
+}
@@ -5,6 +5,7 @@ import db4e.data.Category;
 import db4e.data.Entry;
 import db4e.data.EntryDownloaded;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeoutException;
@@ -12,9 +13,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.application.Platform;
 import javafx.scene.web.WebEngine;
-import netscape.javascript.JSObject;
 import org.w3c.dom.Document;
-import sheepy.util.JavaFX;
 
 /**
  * Responsible for actually asking browser to navigate and run javascript to get data.
@@ -24,11 +23,23 @@ public class Crawler {
    private static final Logger log = Main.log;
 
    private final WebEngine browser;
+   private volatile String loginSite = "http://ddi.wizards.com/";
+   private volatile String compendium = "http://www.wizards.com/dndinsider/compendium/";
 
    public Crawler ( WebEngine browser ) {
       this.browser = browser;
    }
 
+   /**
+    * Point the crawler at another site, such as a ReplayServer.
+    *
+    * @param root Site root, e.g. "http://localhost:8080/"
+    */
+   void setSite ( String root ) {
+      loginSite = root;
+      compendium = root + "dndinsider/compendium/";
+   }
+
    private void browse ( String url ) {
       if ( Platform.isFxApplicationThread() )
          browser.load( url );
@@ -77,7 +88,7 @@ public class Crawler {
    }
 
    void openLoginPage () {
-      browse( "http://ddi.wizards.com/" );
+      browse( loginSite );
    }
 
    synchronized void login ( String username, String password ) throws InterruptedException, TimeoutException {
@@ -87,7 +98,7 @@ public class Crawler {
    }
 
    void getCategoryXsl ( Category cat ) {
-      browse( "http://www.wizards.com/dndinsider/compendium/xsl/" + cat.id + ".xsl" );
+      browse( compendium + "xsl/" + cat.id + ".xsl" );
    }
 
    Document getCategoryXsl () throws InterruptedException, TimeoutException {
@@ -97,33 +108,37 @@ public class Crawler {
    }
 
    void getCategoryData ( Category cat ) {
-      browse( "http://www.wizards.com/dndinsider/compendium/CompendiumSearch.asmx/ViewAll?tab=" + cat.id );
+      browse( compendium + "CompendiumSearch.asmx/ViewAll?tab=" + cat.id );
    }
 
-   List<Entry> openCategory () throws InterruptedException, TimeoutException {
+   // Listing rows are passed from browser as one string, to cross the JS bridge only once.
+   private static final String ROW_SEPARATOR = "\u001E";
+   private static final String CELL_SEPARATOR = "\u001F";
 
+   List<Entry> openCategory () throws InterruptedException, TimeoutException {
+      final long startNs = System.nanoTime();
       Object data = eval( // Perhaps the slowest part in listing, but easily dwarfed by content download.
-           " var links = document.querySelectorAll( 'a:not([href^=javascript])' ),  result = []; "
+           " var links = document.querySelectorAll( 'a:not([href^=javascript])' ),  result = [],  sep = /[\\u001E\\u001F]/g; "
+         + " function txt ( e ) { return e.textContent.trim().replace( sep, ' ' ); } "
          + " for ( var y = 0, max_y = links.length ; y < max_y ; y++ ) { "
-         + "    var a = links[ y ],  cells = a.parentNode.parentNode.cells,  prop = []; "
-         //     meta = [  [ id , name , [ meta properties ] ] , ... ]
-         + "    var row = [ a.href, a.textContent.trim(), prop ]; "
+         + "    var a = links[ y ],  cells = a.parentNode.parentNode.cells; "
+         //     result = "id , name , meta properties... ; ..." with control characters as delimiters
+         + "    var row = [ a.href.replace( sep, ' ' ), txt( a ) ]; "
          + "    for ( var x = 1, max_x = cells.length ; x < max_x ; x++ ) "
-         + "       prop.push( cells[ x ].textContent.trim() ); "
-         + "    result.push( row ); "
-         + " } result; " );
+         + "       row.push( txt( cells[ x ] ) ); "
+         + "    result.push( row.join( '\\u001F' ) ); "
+         + " } result.join( '\\u001E' ); " );
+      final long fxNs = System.nanoTime() - startNs;
 
+      final String text = data == null ? "" : data.toString();
       final List<Entry> result = new ArrayList<>( 1024 );
-      JavaFX.runNow( () -> {
-         Object[] rows = toArray( data );
-         for ( Object line : rows ) {
-            Object[] row = toArray( line );
-            String name = row[1].toString();
-            log.log( Level.FINER, "Copying row {0}", name );
-            Object[] props = toArray( row[ 2 ] );
-            result.add( new EntryDownloaded( row[0].toString(), name, props ) );
-         }
-      } );
+      if ( ! text.isEmpty() ) for ( String line : text.split( ROW_SEPARATOR ) ) {
+         String[] row = line.split( CELL_SEPARATOR, -1 );
+         log.log( Level.FINER, "Copying row {0}", row[1] );
+         Object[] props = Arrays.copyOfRange( row, 2, row.length, Object[].class );
+         result.add( new EntryDownloaded( row[0], row[1], props ) );
+      }
+      log.log( Level.FINE, "Listed {0} entries. FX thread blocked {1}ns, decoded in {2}ns.", new Object[]{ result.size(), fxNs, System.nanoTime() - startNs - fxNs } );
       return result;
    }
 
@@ -132,7 +147,7 @@ public class Crawler {
    }
 
    private void openEntry ( String url ) {
-      browse( "http://www.wizards.com/dndinsider/compendium/" + url );
+      browse( compendium + url );
    }
 
    void getEntry ( Entry entry ) throws InterruptedException, TimeoutException {
@@ -155,22 +170,6 @@ public class Crawler {
       return input.replace( "\r", "\\r" ).replace( "\n", "\\n" ).replace( "\"", "\\\"" );
    }
 
-   /**
-    * Convert an array-like JSObject into Object[].
-    *
-    * @param jsobj JSObject to convert
-    * @return Result Object[]
-    * @throws NullPointerException if jsobj is null or does not have length property
-    */
-   private Object[] toArray( Object jsobj ) {
-      JSObject obj = (JSObject) jsobj;
-      int length = ( ( Number ) obj.getMember( "length" ) ).intValue();
-      Object[] result = new Object[ length ];
-      for ( int i = 0 ; i < length ; i++ )
-         result[ i ] = obj.getSlot( i );
-      return result;
-   }
-
    /**
     * Run a JavaScript and return its result.
     * Well, it's a little bit more complicated than it sounds.
@@ -4,15 +4,20 @@ import db4e.Main;
 import db4e.data.Category;
 import db4e.data.Entry;
 import db4e.data.EntryDownloaded;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import org.tmatesoft.sqljet.core.SqlJetException;
 import org.tmatesoft.sqljet.core.SqlJetTransactionMode;
@@ -24,13 +29,18 @@ import static sheepy.util.Utils.sync;
 
 /**
  * Database abstraction.
- * Note that SqlJet does not support multi-thread.
+ * Note that SqlJet does not support multi-thread; lazy content is read with a separate read-only handle per thread.
  */
 class DbAbstraction {
 
    private static final Logger log = Main.log;
 
+   static final String DELISTED = "-"; // Category prefix of entries no longer listed
    private volatile SqlJetDb db;
+   private volatile boolean fromSnapshot; // True if category and entries are loaded from snapshot.
+   private final ThreadLocal<SqlJetDb> contentReader = new ThreadLocal<>(); // Read-only handle of each content loading thread
+   private final List<SqlJetDb> readers = new ArrayList<>(); // All content reader handles, to be closed with database
+   private boolean readersClosed = false; // Guarded by readers
 
    void setDb ( SqlJetDb db, ObservableList<Category> categories, ProgressState state ) throws SqlJetException {
       this.db = db;
@@ -52,10 +62,16 @@ class DbAbstraction {
       }
       log.log( Level.CONFIG, "Database version {0,number,#}, opened.", version );
 
+      fromSnapshot = loadSnapshot( categories, state );
+      if ( fromSnapshot ) return;
       loadCategory( categories );
       loadEntryIndex( categories, state );
    }
 
+   boolean isFromSnapshot () {
+      return fromSnapshot;
+   }
+
    void createTables () throws SqlJetException {
       db.beginTransaction( SqlJetTransactionMode.WRITE );
       try {
@@ -135,7 +151,7 @@ class DbAbstraction {
          cursor.close();
          synchronized ( list ) { log.log( Level.FINE, "Loaded {0} categories.", list.size() ); }
 
-         JavaFX.runNow( () -> { synchronized ( categories ) { synchronized ( list ) {
+         runOnFx( () -> { synchronized ( categories ) { synchronized ( list ) {
             categories.clear();
             categories.addAll( list );
          } } } );
@@ -145,6 +161,20 @@ class DbAbstraction {
       }
    }
 
+   /**
+    * Run a category list update on JavaFX thread, since the list may be shown in GUI.
+    * When JavaFX is not started, e.g. in benchmarks, run it on current thread.
+    */
+   private static void runOnFx ( Runnable task ) {
+      try {
+         Platform.runLater( () -> {} ); // Throws if toolkit is not initialised
+      } catch ( IllegalStateException ex ) {
+         task.run();
+         return;
+      }
+      JavaFX.runNow( task );
+   }
+
    private void loadEntryIndex ( List<Category> categories, ProgressState state ) throws SqlJetException {
       int downCount = 0;
       state.reset();
@@ -152,10 +182,7 @@ class DbAbstraction {
       db.beginTransaction( SqlJetTransactionMode.READ_ONLY );
       try {
          ISqlJetTable tblEntry = db.getTable( "entry" );
-         ISqlJetCursor cursor = tblEntry.open();
-         final int total = (int) cursor.getRowCount();
-         state.total = total;
-         cursor.close();
+         synchronized( categories ) { state.total = categories.stream().mapToInt( c -> c.total_entry.get() ).sum(); } // Excludes delisted entries
 
          for ( Category category : sync( categories ) ) synchronized( category ) {
             int countWithData = 0, size = category.total_entry.get();
@@ -163,7 +190,7 @@ class DbAbstraction {
             list.clear();
 
             if ( category.total_entry.get() > 0 ) {
-               cursor = tblEntry.lookup( "entry_category_index", category.id );
+               ISqlJetCursor cursor = tblEntry.lookup( "entry_category_index", category.id );
                if ( ! cursor.eof() ) do {
                   final EntryDownloaded entry = new EntryDownloaded( cursor.getString( "id" ), cursor.getString( "name" ) );
                   list.add( entry );
@@ -188,7 +215,80 @@ class DbAbstraction {
       state.set( downCount );
    }
 
+   /**
+    * Load categories and entry index from a snapshot of the database.  Entry content are mapped and not loaded.
+    * @return false if snapshot is missing, outdated, or cannot be read.
+    */
+   private boolean loadSnapshot ( ObservableList<Category> categories, ProgressState state ) {
+      final List<Category> list;
+      try {
+         list = Snapshot.read( db.getFile() );
+      } catch ( IOException | RuntimeException ex ) {
+         log.log( Level.WARNING, "Cannot read snapshot: {0}", ex );
+         return false;
+      }
+      if ( list == null || list.isEmpty() ) return false;
+
+      int total = 0, downCount = 0;
+      for ( Category category : list ) synchronized ( category ) {
+         final int countWithData = (int) category.entries.stream().filter( Entry::hasContent ).count();
+         category.downloaded_entry.set( countWithData );
+         total += category.entries.size();
+         downCount += countWithData;
+      }
+      log.log( Level.FINE, "Loaded {0} categories from snapshot.", list.size() );
+      runOnFx( () -> { synchronized ( categories ) {
+         categories.clear();
+         categories.addAll( list );
+      } } );
+      state.reset();
+      state.total = total;
+      state.set( downCount );
+      return true;
+   }
+
+   /**
+    * Write a snapshot of the database, to be mapped on next start.
+    * @throws SqlJetException On database error
+    * @throws IOException On write error
+    */
+   void saveSnapshot () throws SqlJetException, IOException {
+      db.beginTransaction( SqlJetTransactionMode.READ_ONLY );
+      try ( Snapshot.Writer writer = new Snapshot.Writer( db.getFile() ) ) {
+         ISqlJetTable tblEntry = db.getTable( "entry" );
+         ISqlJetCursor catCursor = db.getTable( "category" ).order( "category_order_index" );
+         if ( ! catCursor.eof() ) do {
+            final String id = catCursor.getString( "id" );
+            final int size = (int) catCursor.getInteger( "count" );
+            writer.addCategory( id, catCursor.getString( "name" ), parseCsvLine( catCursor.getString( "fields" ) ), size );
+            if ( size <= 0 ) continue;
+            int count = 0;
+            ISqlJetCursor cursor = tblEntry.lookup( "entry_category_index", id );
+            if ( ! cursor.eof() ) do {
+               writer.addEntry( cursor.getString( "id" ), cursor.getString( "name" ), cursor.getInteger( "hasData" ) != 0,
+                  parseCsvLine( cursor.getString( "fields" ) ), cursor.getString( "data" ) );
+               ++count;
+            } while ( cursor.next() );
+            cursor.close();
+            if ( count != size )
+               throw new IllegalStateException( id + " entry mismatch, expected " + size + ", read " + count );
+         } while ( catCursor.next() );
+         catCursor.close();
+         writer.finish();
+      } finally {
+         db.commit();
+      }
+   }
+
    void loadEntityContent ( List<Category> categories, ProgressState state ) throws SqlJetException {
+      loadEntityContent( categories, state, false );
+   }
+
+   /**
+    * Load fields and content of entries that are not yet loaded.
+    * @param lazy If true, content is not read but set to load from database on demand.  Database must stay open.
+    */
+   void loadEntityContent ( List<Category> categories, ProgressState state, boolean lazy ) throws SqlJetException {
       db.beginTransaction( SqlJetTransactionMode.READ_ONLY );
       try {
          synchronized( categories ) { state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum(); }
@@ -196,12 +296,15 @@ class DbAbstraction {
          for ( Category category : sync( categories ) ) synchronized( category ) {
             log.log( Level.FINE, "Loading {0} content", category.id );
             for ( Entry entry : category.entries ) synchronized( entry ) {
-               if ( entry.getFields() == null || entry.getContent() == null ) {
+               if ( entry.getFields() == null || ! entry.isContentSet() ) {
                   ISqlJetCursor cursor = tblEntry.lookup( null, entry.getId() );
                   if ( cursor.eof() ) throw new IllegalStateException( "'" + entry.getName() + "' not in database" );
                   String[] fields = parseCsvLine( cursor.getString( "fields" ) );
                   if ( entry.getFields()  == null ) entry.setFields( Arrays.copyOf( fields, fields.length, Object[].class ) );
-                  if ( entry.getContent() == null ) entry.setContent( cursor.getString( "data" ) );
+                  if ( ! entry.isContentSet() ) {
+                     if ( ! lazy ) entry.setContent( cursor.getString( "data" ) );
+                     else if ( ! cursor.isNull( "data" ) ) entry.setContentSource( new DbContent( entry.getId() ) );
+                  }
                   cursor.close();
                }
                state.addOne();
@@ -213,8 +316,75 @@ class DbAbstraction {
       }
    }
 
+   /**
+    * Read content of an entry.  Called from export threads, each reading with its own read-only handle.
+    * @return Content, or null if entry has no content.
+    */
+   String loadContent ( String id ) throws SqlJetException {
+      SqlJetDb reader = contentReader.get();
+      if ( reader == null ) contentReader.set( reader = openReader() );
+      reader.beginTransaction( SqlJetTransactionMode.READ_ONLY );
+      try {
+         ISqlJetCursor cursor = reader.getTable( "entry" ).lookup( null, id );
+         String result = cursor.eof() ? null : cursor.getString( "data" );
+         cursor.close();
+         return result;
+      } finally {
+         reader.commit();
+      }
+   }
+
+   private SqlJetDb openReader () throws SqlJetException {
+      synchronized ( readers ) {
+         if ( readersClosed ) throw new IllegalStateException( "Database closed" );
+         SqlJetDb reader = SqlJetDb.open( db.getFile(), false );
+         readers.add( reader );
+         log.log( Level.FINE, "Opened content reader #{0} for {1}", new Object[]{ readers.size(), Thread.currentThread() } );
+         return reader;
+      }
+   }
+
+   /** Close read-only handles of content readers.  Lazy content can no longer be loaded. */
+   void close () {
+      synchronized ( readers ) {
+         readersClosed = true;
+         for ( SqlJetDb reader : readers ) try {
+            reader.close();
+         } catch ( SqlJetException ex ) {
+            log.log( Level.WARNING, "Error when closing content reader: {0}", ex );
+         }
+         readers.clear();
+      }
+   }
+
+   /** Content source of an entry in database. */
+   private class DbContent implements Supplier<String> {
+      private final String id;
+      private DbContent ( String id ) { this.id = id; }
+      @Override public String get () {
+         try {
+            return loadContent( id );
+         } catch ( SqlJetException ex ) {
+            throw new IllegalStateException( "Cannot load '" + id + "' from database", ex );
+         }
+      }
+   }
+
+   /**
+    * Save the listing of a category.
+    * New entries are inserted.  Entries with changed name or fields are updated and marked as not downloaded.
+    * Entries no longer listed are kept with their data, but moved out of the category by a DELISTED prefix,
+    * so that a partial listing does not lose downloaded content.  They are moved back if listed again.
+    * Content flag of given entries are set to match the database.
+    *
+    * @param category Category of the listing
+    * @param entries Full listing
+    * @throws SqlJetException On database error
+    */
    void saveEntryList ( Category category, List<Entry> entries ) throws SqlJetException {
-      int count = entries.size();
+      int count = entries.size(), added = 0, changed = 0;
+      Set<String> listed = new HashSet<>( count * 2 );
+      Map<String, Object> changes = new HashMap<>( 4, 1f );
       db.beginTransaction( SqlJetTransactionMode.WRITE );
       try {
          ISqlJetTable tblCategory = db.getTable( "category" );
@@ -222,17 +392,48 @@ class DbAbstraction {
 
          for ( Entry entry : entries ) synchronized( entry ) {
             log.log( Level.FINER, "Saving {0}", entry );
+            listed.add( entry.getId() );
             ISqlJetCursor lookup = tblEntry.lookup( null, entry.getId() );
             // Table fields: id, name, category, fields, hasData, data
             String fields = buildCsvLine( entry.getFields() ).toString();
             if ( lookup.eof() ) {
                tblEntry.insert( entry.getId(), entry.getName(), category.id, fields, 0, null );
-            //} else { // Shouldn't need to update.
-            //   lookup.update( entry.id, entry.name, category.id, fields );
+               ++added;
+            } else {
+               changes.clear();
+               if ( ! category.id.equals( lookup.getString( "category" ) ) )
+                  changes.put( "category", category.id ); // Listed again
+               if ( ! entry.getName().equals( lookup.getString( "name" ) ) || ! fields.equals( lookup.getString( "fields" ) ) ) {
+                  // Listing changed. Keep old data until it is downloaded again.
+                  changes.put( "name", entry.getName() );
+                  changes.put( "fields", fields );
+                  changes.put( "hasData", 0 );
+                  ++changed;
+               } else
+                  entry.setHasContent( lookup.getInteger( "hasData" ) != 0 );
+               if ( ! changes.isEmpty() ) lookup.updateByFieldNames( changes );
             }
             lookup.close();
          }
 
+         // Move entries that are no longer listed out of the category, so that entry count matches category count
+         List<String> delisted = new ArrayList<>();
+         ISqlJetCursor cursor = tblEntry.lookup( "entry_category_index", category.id );
+         if ( ! cursor.eof() ) do {
+            String id = cursor.getString( "id" );
+            if ( ! listed.contains( id ) ) delisted.add( id );
+         } while ( cursor.next() );
+         cursor.close();
+         changes.clear();
+         changes.put( "category", DELISTED + category.id );
+         for ( String id : delisted ) {
+            cursor = tblEntry.lookup( null, id );
+            if ( ! cursor.eof() ) cursor.updateByFieldNames( changes );
+            cursor.close();
+         }
+         if ( added != count )
+            log.log( Level.INFO, "{0} listing: {1} new, {2} changed, {3} delisted", new Object[]{ category.id, added, changed, delisted.size() } );
+
          // Table fields: id, name, count, fields, type, order
          log.log( Level.FINE, "Updating {0} count", category.id );
          ISqlJetCursor owner = tblCategory.lookup( null, category.id );
@@ -274,6 +475,35 @@ class DbAbstraction {
       }
    }
 
+   String loadConfig ( String key ) throws SqlJetException {
+      db.beginTransaction( SqlJetTransactionMode.READ_ONLY );
+      try {
+         ISqlJetCursor cursor = db.getTable( "config" ).lookup( null, key );
+         String result = cursor.eof() ? null : cursor.getString( "value" );
+         cursor.close();
+         return result;
+      } finally {
+         db.commit();
+      }
+   }
+
+   void saveConfig ( String key, String value ) throws SqlJetException {
+      db.beginTransaction( SqlJetTransactionMode.WRITE );
+      try {
+         ISqlJetTable tblConfig = db.getTable( "config" );
+         ISqlJetCursor cursor = tblConfig.lookup( null, key );
+         // Table fields: key, value
+         if ( cursor.eof() )
+            tblConfig.insert( key, value );
+         else
+            cursor.update( key, value );
+         cursor.close();
+         db.commit();
+      } finally {
+         db.rollback();
+      }
+   }
+
    /////////////////////////////////////////////////////////////////////////////
    // Utils
    /////////////////////////////////////////////////////////////////////////////
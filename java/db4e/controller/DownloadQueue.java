@@ -0,0 +1,97 @@
+package db4e.controller;
+
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static sheepy.util.Utils.sync;
+
+/**
+ * Decides the order of entry download.
+ *
+ * Entries of all categories are interleaved by category weight (stride scheduling),
+ * so that heavy categories are finished first while every category still progresses.
+ * The order depends only on category list, entry list, and weights, so that a saved position can be resumed.
+ */
+class DownloadQueue {
+
+   private static final long STRIDE = 720_720; // Divisible by 1 to 16
+
+   private final Entry[] entries;
+   private final Category[] owners;
+   private final String signature;
+
+   DownloadQueue ( List<Category> categories, String priority ) {
+      final Map<String, Integer> weights = parsePriority( priority );
+      final int catCount = categories.size();
+      final List<List<Entry>> lists = new ArrayList<>( catCount );
+      final long[] pass = new long[ catCount ], stride = new long[ catCount ];
+      final int[] next = new int[ catCount ];
+      int total = 0;
+      for ( int i = 0 ; i < catCount ; i++ ) {
+         Category category = categories.get( i );
+         List<Entry> list = sync( category.entries, category );
+         lists.add( list );
+         total += list.size();
+         stride[ i ] = STRIDE / weights.getOrDefault( category.id, 1 );
+      }
+
+      entries = new Entry[ total ];
+      owners = new Category[ total ];
+      for ( int pos = 0 ; pos < total ; pos++ ) {
+         // Pick the category with lowest pass.  Ties go to category order.
+         int pick = -1;
+         for ( int i = 0 ; i < catCount ; i++ )
+            if ( next[ i ] < lists.get( i ).size() && ( pick < 0 || pass[ i ] < pass[ pick ] ) )
+               pick = i;
+         entries[ pos ] = lists.get( pick ).get( next[ pick ]++ );
+         owners[ pos ] = categories.get( pick );
+         pass[ pick ] += stride[ pick ];
+      }
+
+      StringBuilder sig = new StringBuilder( 256 );
+      for ( Category category : categories )
+         sig.append( category.id ).append( ':' ).append( weights.getOrDefault( category.id, 1 ) ).append( ',' );
+      signature = sig.append( total ).toString();
+   }
+
+   /**
+    * Parse a priority setting, e.g. "Power:8,Feat:4".
+    *
+    * @param priority Comma separated category id and weight (1 to 16).
+    * @return Map of category id to weight.
+    * @throws IllegalArgumentException If the setting is malformed.  NumberFormatException is a subclass.
+    */
+   static Map<String, Integer> parsePriority ( String priority ) {
+      Map<String, Integer> result = new HashMap<>();
+      if ( priority == null ) return result;
+      for ( String part : priority.split( "," ) ) {
+         if ( part.trim().isEmpty() ) continue;
+         String[] pair = part.split( ":" );
+         if ( pair.length != 2 ) throw new IllegalArgumentException( "Invalid priority " + part );
+         int weight = Integer.parseUnsignedInt( pair[1].trim() );
+         if ( weight < 1 || weight > 16 ) throw new IllegalArgumentException( "Weight out of range (1-16): " + part );
+         result.put( pair[0].trim(), weight );
+      }
+      return result;
+   }
+
+   int size () {
+      return entries.length;
+   }
+
+   Entry getEntry ( int pos ) {
+      return entries[ pos ];
+   }
+
+   Category getCategory ( int pos ) {
+      return owners[ pos ];
+   }
+
+   /** Identify the categories, weights, and size that produced this order.  Saved position is valid only for the same signature. */
+   String getSignature () {
+      return signature;
+   }
+}
@@ -0,0 +1,118 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.converter.Convert;
+import db4e.data.Category;
+import db4e.exporter.Exporter;
+import db4e.exporter.ExporterMain;
+import db4e.exporter.ExporterRawColumnar;
+import db4e.exporter.ExporterRawCsv;
+import db4e.exporter.ExporterRawHtml;
+import db4e.exporter.ExporterRawJson;
+import db4e.exporter.ExporterRawSqlite;
+import db4e.exporter.ExporterRawTsv;
+import db4e.exporter.ExporterRawXlsx;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread scaling benchmark of exporters, on converted data of a local database.
+ * Peak heap is the sum of heap pool peaks of each round, so it includes garbage not yet collected.
+ *
+ * Usage: ExportBenchmark [--db=file] [--format=csv] [--threads=1,2,4,8] [--out=folder]
+ * Format is main, html, csv, tsv, json, xlsx, sqlite, or d4c (columnar).  Main export requires a built viewer.
+ */
+public class ExportBenchmark {
+
+   private static final Logger log = Main.log;
+
+   /**
+    * Export all categories with different number of threads, and log time and peak heap of each.
+    * @param categories Converted categories.
+    * @param exporter Create a new exporter.
+    * @param target Export target file.  Will be overwritten.
+    * @param threads Thread counts to test.
+    * @return Report text
+    */
+   public static String benchmark ( List<Category> categories, Supplier<Exporter> exporter, File target, int[] threads ) throws Exception {
+      final StringBuilder report = new StringBuilder( "Threads\tms\tSpeedup\tPeak MB\n" );
+      long baseNs = 0;
+      for ( int round = -1 ; round < threads.length ; round++ ) { // First round is warm up
+         final int count = threads[ Math.max( 0, round ) ];
+         final ProgressState state = new ProgressState( ( progress ) -> {} );
+         final ExecutorService pool = Executors.newFixedThreadPool( count );
+         System.gc();
+         for ( MemoryPoolMXBean mem : ManagementFactory.getMemoryPoolMXBeans() ) mem.resetPeakUsage();
+         final long startNs = System.nanoTime();
+         try ( Exporter exp = exporter.get() ) {
+            exp.setState( target, ( status ) -> {}, state );
+            exp.preExport( categories );
+            final List<Future<Void>> tasks = new ArrayList<>( categories.size() );
+            for ( Category category : categories )
+               tasks.add( pool.submit( () -> { exp.export( category ); return null; } ) );
+            for ( Future<Void> task : tasks ) task.get();
+            exp.postExport( categories );
+         } finally {
+            pool.shutdown();
+         }
+         final long ns = System.nanoTime() - startNs;
+         long peak = 0;
+         for ( MemoryPoolMXBean mem : ManagementFactory.getMemoryPoolMXBeans() )
+            if ( mem.getType() == MemoryType.HEAP ) peak += mem.getPeakUsage().getUsed();
+         if ( round < 0 ) continue;
+         if ( round == 0 ) baseNs = ns;
+         report.append( count ).append( '\t' ).append( ns / 1_000_000 ).append( '\t' )
+            .append( String.format( "%.2f", (double) baseNs / ns ) ).append( '\t' ).append( peak / 1024 / 1024 ).append( '\n' );
+      }
+      log.log( Level.INFO, "Export benchmark:\n{0}", report );
+      return report.toString();
+   }
+
+   public static void main ( String[] args ) throws Exception {
+      String dbPath = Controller.DB_NAME, format = "csv", out = null;
+      int[] threads = { 1, 2, 4, 8 };
+      for ( String arg : args ) {
+         if ( arg.startsWith( "--db=" ) ) dbPath = arg.substring( 5 );
+         else if ( arg.startsWith( "--format=" ) ) format = arg.substring( 9 );
+         else if ( arg.startsWith( "--out=" ) ) out = arg.substring( 6 );
+         else if ( arg.startsWith( "--threads=" ) )
+            threads = Arrays.stream( arg.substring( 10 ).split( "," ) ).mapToInt( Integer::parseInt ).toArray();
+      }
+      final Supplier<Exporter> exporter;
+      String ext = format;
+      switch ( format ) {
+         case "main" : exporter = ExporterMain::new; ext = "html"; break;
+         case "html" : exporter = ExporterRawHtml::new; break;
+         case "csv"  : exporter = ExporterRawCsv::new; break;
+         case "tsv"  : exporter = ExporterRawTsv::new; break;
+         case "json" : exporter = ExporterRawJson::new; break;
+         case "xlsx" : exporter = ExporterRawXlsx::new; break;
+         case "sqlite" : exporter = ExporterRawSqlite::new; break;
+         case "d4c"  : exporter = ExporterRawColumnar::new; break;
+         default :
+            System.out.println( "Unknown format " + format );
+            return;
+      }
+      final File folder = out == null ? Files.createTempDirectory( "db4e_export" ).toFile() : new File( out );
+      final List<Category> categories = Convert.mapExportCategories( SearchBenchmark.loadCategories( new File( dbPath ) ) );
+      for ( Category category : categories ) {
+         final Convert converter = Convert.getConverter( category );
+         converter.convert();
+         converter.mapIndex();
+      }
+      Convert.afterConvert( null );
+      System.out.print( benchmark( categories, exporter, new File( folder, "export." + ext ), threads ) );
+   }
+}
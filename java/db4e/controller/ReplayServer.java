@@ -0,0 +1,154 @@
+package db4e.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import db4e.Main;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serve data recorded by CrawlRecorder on localhost, standing in for the compendium.
+ * Latency, jitter, and failures can be injected to test crawl speed and retry offline.
+ *
+ * Can be run stand alone: ReplayServer folder [port] [latency ms] [jitter ms] [error rate] [hang rate]
+ */
+public class ReplayServer {
+
+   private static final Logger log = Main.log;
+   private static final String COMPENDIUM = "/dndinsider/compendium/";
+
+   private final File root;
+   private HttpServer server;
+   private ExecutorService executor;
+
+   public volatile int latencyMs = 0; // Base delay of every response
+   public volatile int jitterMs = 0; // Random delay added to or removed from latency
+   public volatile double errorRate = 0; // Chance of HTTP 503
+   public volatile double hangRate = 0; // Chance of not responding within crawler timeout
+   public volatile int hangMs = Controller.DEF_TIMEOUT_MS * 2;
+
+   private final AtomicInteger served = new AtomicInteger(), missing = new AtomicInteger(), failed = new AtomicInteger();
+   private final AtomicLong totalNs = new AtomicLong();
+
+   public ReplayServer ( File root ) {
+      this.root = root;
+   }
+
+   /**
+    * Start server on loopback interface.
+    *
+    * @param port Port to listen to. 0 to pick any free port.
+    * @return Site root url, e.g. "http://localhost:1234/"
+    * @throws IOException If server cannot be started
+    */
+   public synchronized String start ( int port ) throws IOException {
+      if ( ! root.isDirectory() ) throw new IOException( "Replay folder not found: " + root.getAbsolutePath() );
+      server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+      executor = Executors.newFixedThreadPool( 4, ( task ) -> {
+         Thread thread = new Thread( task, "Replay server" );
+         thread.setDaemon( true );
+         return thread;
+      } );
+      server.setExecutor( executor );
+      server.createContext( "/", this::handle );
+      server.start();
+      String url = "http://localhost:" + server.getAddress().getPort() + "/";
+      log.log( Level.CONFIG, "Replaying {0} at {1} (latency {2}±{3}ms, error {4}, hang {5})",
+         new Object[]{ root.getAbsolutePath(), url, latencyMs, jitterMs, errorRate, hangRate } );
+      return url;
+   }
+
+   public synchronized void stop () {
+      if ( server == null ) return;
+      server.stop( 0 );
+      executor.shutdownNow();
+      server = null;
+      int count = served.get();
+      log.log( Level.INFO, "Replay server stopped. Served {0} ({1} not found, {2} injected failures), average {3}ms.",
+         new Object[]{ count, missing.get(), failed.get(), count == 0 ? 0 : totalNs.get() / count / 1_000_000 } );
+   }
+
+   private void handle ( HttpExchange exchange ) throws IOException {
+      final long startNs = System.nanoTime();
+      try {
+         final ThreadLocalRandom random = ThreadLocalRandom.current();
+         int delay = latencyMs + ( jitterMs > 0 ? random.nextInt( -jitterMs, jitterMs + 1 ) : 0 );
+         if ( delay > 0 ) Thread.sleep( delay );
+
+         final double roll = random.nextDouble();
+         if ( roll < errorRate ) {
+            failed.incrementAndGet();
+            respond( exchange, 503, "text/html", "<html><body>Service Unavailable</body></html>" );
+            return;
+         } else if ( roll < errorRate + hangRate ) {
+            failed.incrementAndGet();
+            Thread.sleep( hangMs );
+         }
+
+         final URI uri = exchange.getRequestURI();
+         final String path = uri.getPath();
+         if ( ! path.startsWith( COMPENDIUM ) ) { // Login site, or anything else
+            respond( exchange, 200, "text/html", "<html><body>Replay server</body></html>" );
+            return;
+         }
+         String query = uri.getQuery();
+         String name = CrawlRecorder.toFileName( path.substring( COMPENDIUM.length() ) + ( query == null ? "" : "?" + query ) );
+         File file = new File( root, name );
+         if ( name.contains( ".." ) || ! file.isFile() ) {
+            missing.incrementAndGet();
+            log.log( Level.FINE, "Replay not found: {0}", uri );
+            respond( exchange, 404, "text/html", "<html><body>Not Found</body></html>" );
+            return;
+         }
+         String content = new String( Files.readAllBytes( file.toPath() ), UTF_8 );
+         if ( name.startsWith( "entry/" ) )
+            respond( exchange, 200, "text/html", "<!DOCTYPE html><html><head><meta charset='utf-8'></head><body>"
+               + "<form id='form1'><div id='detail'>" + content + "</div></form><script></script></body></html>" );
+         else
+            respond( exchange, 200, "text/xml", content );
+
+      } catch ( InterruptedException ex ) {
+         Thread.currentThread().interrupt();
+      } finally {
+         exchange.close();
+         served.incrementAndGet();
+         totalNs.addAndGet( System.nanoTime() - startNs );
+      }
+   }
+
+   private void respond ( HttpExchange exchange, int status, String type, String body ) throws IOException {
+      byte[] data = body.getBytes( UTF_8 );
+      exchange.getResponseHeaders().set( "Content-Type", type + "; charset=utf-8" );
+      exchange.sendResponseHeaders( status, data.length );
+      try ( OutputStream out = exchange.getResponseBody() ) {
+         out.write( data );
+      }
+   }
+
+   public static void main ( String[] args ) throws IOException {
+      if ( args.length < 1 ) {
+         System.out.println( "Usage: ReplayServer folder [port] [latency ms] [jitter ms] [error rate] [hang rate]" );
+         return;
+      }
+      ReplayServer server = new ReplayServer( new File( args[0] ) );
+      if ( args.length > 2 ) server.latencyMs = Integer.parseInt( args[2] );
+      if ( args.length > 3 ) server.jitterMs = Integer.parseInt( args[3] );
+      if ( args.length > 4 ) server.errorRate = Double.parseDouble( args[4] );
+      if ( args.length > 5 ) server.hangRate = Double.parseDouble( args[5] );
+      System.out.println( "Serving at " + server.start( args.length > 1 ? Integer.parseInt( args[1] ) : 8080 ) );
+      Runtime.getRuntime().addShutdownHook( new Thread( server::stop ) );
+   }
+}
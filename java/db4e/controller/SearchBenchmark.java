@@ -0,0 +1,140 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.converter.Convert;
+import db4e.converter.Converter;
+import db4e.data.Category;
+import db4e.search.CategorySearch;
+import db4e.search.Query;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.tmatesoft.sqljet.core.table.SqlJetDb;
+
+/**
+ * Headless search over a local database, and a latency benchmark of the search engine.
+ *
+ * Usage: SearchBenchmark [--db=file] [--rounds=20] [--name] [query ...]
+ * With queries, print the matching entries of each query.  Without, run the benchmark query mix and report latency per category.
+ */
+public class SearchBenchmark {
+
+   private static final Logger log = Main.log;
+
+   /** A mix of common search patterns: words, phrase, OR, exclusion, whole word, wildcard, and regex. */
+   static final String[] QUERIES = {
+      "fire", "dragon", "heal", "fire cold", "\"standard action\"", "\"saving throw ends\"",
+      "orb OR staff OR wand", "ally -enemy", "+ki", "teleport*", "\"+* damage\"", "/\\bd(?:ragon|emon)\\b/",
+      "/r[ae]d dragon/", "radiant OR necrotic weakened", "zzzznotfound" };
+
+   /**
+    * Load all downloaded entries of a database, without conversion.
+    * @param dbFile Database file
+    * @return Categories of the database.
+    */
+   public static List<Category> loadCategories ( File dbFile ) throws Exception {
+      final ObservableList<Category> categories = FXCollections.observableArrayList();
+      final ProgressState state = new ProgressState( ( progress ) -> {} );
+      final SqlJetDb db = SqlJetDb.open( dbFile, false );
+      try {
+         final DbAbstraction dal = new DbAbstraction();
+         dal.setDb( db, categories, state );
+         for ( Category category : categories ) // Skip entries not yet downloaded
+            category.entries.removeIf( ( entry ) -> ! entry.hasContent() );
+         dal.loadEntityContent( categories, state );
+      } finally {
+         db.close();
+      }
+      return categories;
+   }
+
+   /**
+    * Load, convert, and index all downloaded entries of a database.
+    * @param dbFile Database file
+    * @return Searchable categories, in export order.
+    */
+   public static List<CategorySearch> load ( File dbFile ) throws Exception {
+      final List<Category> categories = loadCategories( dbFile );
+      final List<CategorySearch> result = Convert.mapExportCategories( categories ).parallelStream().map( ( category ) -> {
+         try {
+            final Converter converter = Convert.getConverter( category );
+            converter.convert();
+            converter.mapIndex();
+            return new CategorySearch( category, converter );
+         } catch ( InterruptedException ex ) {
+            throw new RuntimeException( ex );
+         }
+      } ).collect( Collectors.toList() );
+      Convert.afterConvert( null );
+      return result;
+   }
+
+   /**
+    * Run each query on each category and log latency percentiles per category.
+    * @param data Searchable categories.
+    * @param queries Queries to run.
+    * @param rounds Measured rounds.  Same number of warm up rounds are run first.
+    * @return Report text
+    */
+   public static String benchmark ( List<CategorySearch> data, String[] queries, int rounds ) {
+      final List<Query> parsed = Arrays.stream( queries ).map( Query::parse ).collect( Collectors.toList() );
+      final StringBuilder report = new StringBuilder( "Category\tEntries\tp50 us\tp99 us\tmax us\n" );
+      final List<Long> all = new ArrayList<>();
+      for ( CategorySearch category : data ) {
+         final long[] times = new long[ parsed.size() * rounds ];
+         int pos = 0;
+         for ( int round = -rounds ; round < rounds ; round++ )
+            for ( Query query : parsed ) {
+               final long startNs = System.nanoTime();
+               category.search( query, true );
+               if ( round >= 0 ) times[ pos++ ] = System.nanoTime() - startNs;
+            }
+         Arrays.sort( times );
+         for ( long time : times ) all.add( time );
+         appendRow( report, category.id, category.size(), times );
+      }
+      final long[] times = all.stream().mapToLong( Long::longValue ).sorted().toArray();
+      appendRow( report, "All", data.stream().mapToInt( CategorySearch::size ).sum(), times );
+      log.log( Level.INFO, "Search benchmark ({0} queries, {1} rounds):\n{2}", new Object[]{ queries.length, rounds, report } );
+      return report.toString();
+   }
+
+   private static void appendRow ( StringBuilder report, String name, int size, long[] sortedNs ) {
+      if ( sortedNs.length == 0 ) return;
+      report.append( name ).append( '\t' ).append( size )
+         .append( '\t' ).append( sortedNs[ ( sortedNs.length - 1 ) / 2 ] / 1000 )
+         .append( '\t' ).append( sortedNs[ (int) Math.ceil( sortedNs.length * 0.99 ) - 1 ] / 1000 )
+         .append( '\t' ).append( sortedNs[ sortedNs.length - 1 ] / 1000 ).append( '\n' );
+   }
+
+   public static void main ( String[] args ) throws Exception {
+      String dbPath = Controller.DB_NAME;
+      int rounds = 20;
+      boolean full = true;
+      final List<String> queries = new ArrayList<>();
+      for ( String arg : args ) {
+         if ( arg.startsWith( "--db=" ) ) dbPath = arg.substring( 5 );
+         else if ( arg.startsWith( "--rounds=" ) ) rounds = Integer.parseInt( arg.substring( 9 ) );
+         else if ( arg.equals( "--name" ) ) full = false;
+         else queries.add( arg );
+      }
+      final List<CategorySearch> data = load( new File( dbPath ) );
+      if ( queries.isEmpty() ) {
+         System.out.print( benchmark( data, QUERIES, rounds ) );
+         return;
+      }
+      for ( String term : queries ) {
+         final Query query = Query.parse( term );
+         if ( query == null ) continue;
+         for ( CategorySearch category : data )
+            for ( int row : category.search( query, full ) )
+               System.out.println( term + '\t' + category.id + '\t' + category.getId( row ) + '\t' + category.getName( row ) );
+      }
+   }
+}
@@ -0,0 +1,409 @@
+package db4e.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import db4e.Main;
+import db4e.data.ListingTable;
+import db4e.data.NameIndex;
+import db4e.search.CategorySearch;
+import db4e.search.Query;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Serve converted data of a local database as JSON over http, so that other tools can query it without an export.
+ * Data is loaded and converted once at start up, then kept in memory.
+ *
+ * Can be run stand alone: SearchServer [--db=file] [--port=8080] [--host=address] [--threads=4]
+ * Listen on loopback by default; give --host=0.0.0.0 to serve the LAN.
+ *
+ * GET /api/catalog                     Categories, entry count, and listing columns.
+ * GET /api/listing/category[?sort=column][&desc=1][&column=text]  Listing of a category: [ id, name, fields... ] per entry.
+ * GET /api/entry/id                    Converted content of an entry.
+ * GET /api/search?q=term[&cat=][&name=1][&limit=]  Search, same syntax and result as the viewer.
+ * GET /api/lookup?name=text            Entry ids of a lookup name, same as the viewer's name index.
+ * GET /api/metrics                     Request count, error count, and latency per endpoint.
+ */
+public class SearchServer {
+
+   private static final Logger log = Main.log;
+   private static final String API = "/api/";
+   private static final String[] ROUTES = { "catalog", "listing", "entry", "search", "lookup", "metrics" };
+
+   private final List<CategorySearch> data;
+   private final Map<String, CategorySearch> categories = new HashMap<>(); // Lower case id to category
+   private final Map<String, CategorySearch> entries = new HashMap<>(); // Entry id to category
+   private final NameIndex index;
+   private final Map<String, Latency> metrics = new LinkedHashMap<>(); // Fixed after construction
+   private final Latency unknown = new Latency();
+   private HttpServer server;
+   private ExecutorService executor;
+
+   public SearchServer ( List<CategorySearch> data ) {
+      this.data = data;
+      NameIndex merged = null;
+      for ( CategorySearch category : data ) {
+         categories.put( category.id.toLowerCase(), category );
+         for ( int i = 0, size = category.size() ; i < size ; i++ )
+            entries.put( category.getId( i ), category );
+         if ( category.index != null )
+            merged = merged == null ? category.index : NameIndex.merge( merged, category.index );
+      }
+      index = merged != null ? merged : new NameIndex.Builder().build();
+      for ( String route : ROUTES ) metrics.put( route, new Latency() );
+   }
+
+   /**
+    * Start server.
+    *
+    * @param address Address to bind to, e.g. loopback or wildcard.
+    * @param port Port to listen to. 0 to pick any free port.
+    * @param threads Number of request threads.
+    * @return Api root url, e.g. "http://localhost:1234/api/"
+    * @throws IOException If server cannot be started
+    */
+   public synchronized String start ( InetAddress address, int port, int threads ) throws IOException {
+      server = HttpServer.create( new InetSocketAddress( address, port ), 0 );
+      executor = Executors.newFixedThreadPool( threads, ( task ) -> {
+         Thread thread = new Thread( task, "Search server" );
+         thread.setDaemon( true );
+         return thread;
+      } );
+      server.setExecutor( executor );
+      server.createContext( "/", this::handle );
+      server.start();
+      String url = "http://" + ( address.isAnyLocalAddress() ? "localhost" : address.getHostAddress() ) + ":" + server.getAddress().getPort() + API;
+      log.log( Level.CONFIG, "Serving {0} categories ({1} entries) at {2} with {3} threads",
+         new Object[]{ data.size(), entries.size(), url, threads } );
+      return url;
+   }
+
+   public synchronized void stop () {
+      if ( server == null ) return;
+      server.stop( 0 );
+      executor.shutdownNow();
+      server = null;
+      log.log( Level.INFO, "Search server stopped.\n{0}", metrics() );
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Request handling
+   /////////////////////////////////////////////////////////////////////////////
+
+   private void handle ( HttpExchange exchange ) throws IOException {
+      final long startNs = System.nanoTime();
+      Latency metric = unknown;
+      int status = 500;
+      try {
+         final String path = exchange.getRequestURI().getRawPath();
+         if ( ! path.startsWith( API ) ) {
+            status = respond( exchange, 404, error( "Not found" ) );
+            return;
+         }
+         final String[] parts = path.substring( API.length() ).split( "/", 2 );
+         final String arg = parts.length > 1 ? decode( parts[1] ) : "";
+         if ( metrics.containsKey( parts[0] ) ) metric = metrics.get( parts[0] );
+         if ( ! exchange.getRequestMethod().equals( "GET" ) ) {
+            status = respond( exchange, 405, error( "Method not allowed" ) );
+            return;
+         }
+         final Map<String, String> params = params( exchange.getRequestURI().getRawQuery() );
+         final StringBuilder body;
+         switch ( parts[0] ) {
+            case "catalog" : body = catalog(); break;
+            case "listing" : body = listing( categories.get( arg.toLowerCase() ), params ); break;
+            case "entry"   : body = entry( arg ); break;
+            case "search"  : body = search( params ); break;
+            case "lookup"  : body = lookup( params.getOrDefault( "name", "" ) ); break;
+            case "metrics" : body = metrics(); break;
+            default        : body = null;
+         }
+         status = body == null ? respond( exchange, 404, error( "Not found" ) ) : respond( exchange, 200, body );
+
+      } catch ( IllegalArgumentException ex ) { // Includes PatternSyntaxException and NumberFormatException
+         status = respond( exchange, 400, error( ex instanceof PatternSyntaxException ? ( (PatternSyntaxException) ex ).getDescription() : ex.getMessage() ) );
+      } catch ( RuntimeException ex ) {
+         log.log( Level.WARNING, "Search server error on {0}: {1}", new Object[]{ exchange.getRequestURI(), ex } );
+         respond( exchange, 500, error( ex.toString() ) );
+      } finally {
+         exchange.close();
+         metric.add( System.nanoTime() - startNs, status >= 400 );
+      }
+   }
+
+   private StringBuilder catalog () {
+      final StringBuilder buf = new StringBuilder( 4096 ).append( '[' );
+      for ( CategorySearch category : data ) {
+         buf.append( "{\"id\":" );
+         str( buf, category.id ).append( ",\"name\":" );
+         str( buf, category.name ).append( ",\"count\":" ).append( category.size() ).append( ",\"columns\":" );
+         columns( buf, category ).append( "}," );
+      }
+      return close( buf, ']' );
+   }
+
+   /**
+    * List a category.  Other parameters are column filters; every filter must match exactly.
+    * Sort by name if sort is not given; numeric columns (such as Level) are sorted by number.
+    */
+   private StringBuilder listing ( CategorySearch category, Map<String, String> params ) {
+      if ( category == null ) return null;
+      final ListingTable table = category.listing;
+      BitSet filter = null;
+      int sort = -1;
+      for ( Map.Entry<String, String> e : params.entrySet() ) {
+         final String key = e.getKey();
+         if ( key.equals( "desc" ) ) continue;
+         final int col = key.equals( "sort" ) ? table.getColumn( e.getValue() ) : table.getColumn( key );
+         if ( col < 0 && ! ( key.equals( "sort" ) && e.getValue().equals( "Name" ) ) )
+            throw new IllegalArgumentException( "Unknown column " + ( key.equals( "sort" ) ? e.getValue() : key ) );
+         if ( key.equals( "sort" ) ) {
+            sort = col;
+            continue;
+         }
+         final BitSet rows = table.filter( col, e.getValue() );
+         if ( filter == null ) filter = rows;
+         else filter.and( rows );
+      }
+      final int[] order = params.containsKey( "sort" ) ? table.order( sort, "1".equals( params.get( "desc" ) ) ) : null;
+
+      final StringBuilder buf = new StringBuilder( table.size() * 64 ).append( "{\"columns\":" );
+      columns( buf, category ).append( ",\"rows\":[" );
+      for ( int i = 0, size = table.size() ; i < size ; i++ ) {
+         final int row = order == null ? i : order[ i ];
+         if ( filter != null && ! filter.get( row ) ) continue;
+         buf.append( '[' );
+         str( buf, table.getId( row ) ).append( ',' );
+         str( buf, table.getName( row ) ).append( ',' );
+         for ( int col = 0 ; col < table.getColumnCount() ; col++ ) {
+            final Object field = table.getCell( col, row );
+            if ( field instanceof Object[] ) { // Sortable field, [ text, number... ]
+               final Object[] ary = (Object[]) field;
+               str( buf.append( '[' ), ary[0].toString() ).append( ',' );
+               for ( int j = 1 ; j < ary.length ; j++ ) buf.append( ary[j] ).append( ',' );
+               close( buf, ']' ).append( ',' );
+            } else
+               str( buf, field.toString() ).append( ',' );
+         }
+         close( buf, ']' ).append( ',' );
+      }
+      return close( buf, ']' ).append( '}' );
+   }
+
+   private StringBuilder entry ( String id ) {
+      final CategorySearch category = entries.get( id );
+      if ( category == null ) return null;
+      final int row = category.getRow( id );
+      final StringBuilder buf = new StringBuilder( category.getContent( row ).length() + 128 ).append( "{\"id\":" );
+      str( buf, id ).append( ",\"category\":" );
+      str( buf, category.id ).append( ",\"name\":" );
+      str( buf, category.getName( row ) ).append( ",\"content\":" );
+      return str( buf, category.getContent( row ) ).append( '}' );
+   }
+
+   private StringBuilder search ( Map<String, String> params ) {
+      final String term = params.getOrDefault( "q", "" );
+      final Query query = Query.parse( term );
+      final boolean full = ! "1".equals( params.get( "name" ) );
+      final int limit = Integer.parseInt( params.getOrDefault( "limit", "1000" ) );
+      final String cat = params.get( "cat" );
+      if ( cat != null && ! categories.containsKey( cat.toLowerCase() ) ) throw new IllegalArgumentException( "Unknown category " + cat );
+      final StringBuilder buf = new StringBuilder( 4096 ).append( "{\"query\":" );
+      str( buf, term ).append( ",\"results\":[" );
+      int count = 0;
+      if ( query != null )
+         for ( CategorySearch category : data ) {
+            if ( cat != null && ! category.id.equalsIgnoreCase( cat ) ) continue;
+            for ( int row : category.search( query, full ) ) {
+               if ( count++ >= limit ) continue; // Keep counting
+               buf.append( "{\"id\":" );
+               str( buf, category.getId( row ) ).append( ",\"category\":" );
+               str( buf, category.id ).append( ",\"name\":" );
+               str( buf, category.getName( row ) ).append( "}," );
+            }
+         }
+      return close( buf, ']' ).append( ",\"count\":" ).append( count ).append( '}' );
+   }
+
+   private StringBuilder lookup ( String name ) {
+      final List<String> ids = index.get( name.trim().toLowerCase() );
+      final StringBuilder buf = new StringBuilder( 256 ).append( '[' );
+      if ( ids != null )
+         for ( String id : ids ) str( buf, id ).append( ',' );
+      return close( buf, ']' );
+   }
+
+   private StringBuilder metrics () {
+      final StringBuilder buf = new StringBuilder( 1024 ).append( '{' );
+      for ( Map.Entry<String, Latency> e : metrics.entrySet() )
+         e.getValue().toJson( str( buf, e.getKey() ).append( ':' ) ).append( ',' );
+      return unknown.toJson( buf.append( "\"other\":" ) ).append( '}' );
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Utilities
+   /////////////////////////////////////////////////////////////////////////////
+
+   private int respond ( HttpExchange exchange, int status, CharSequence body ) throws IOException {
+      byte[] data = body.toString().getBytes( UTF_8 );
+      exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+      exchange.getResponseHeaders().set( "Access-Control-Allow-Origin", "*" );
+      exchange.sendResponseHeaders( status, data.length );
+      try ( OutputStream out = exchange.getResponseBody() ) {
+         out.write( data );
+      }
+      return status;
+   }
+
+   private StringBuilder error ( String message ) {
+      return str( new StringBuilder( "{\"error\":" ), message == null ? "" : message ).append( '}' );
+   }
+
+   private StringBuilder columns ( StringBuilder buf, CategorySearch category ) {
+      buf.append( "[\"ID\",\"Name\"," );
+      for ( int col = 0 ; col < category.listing.getColumnCount() ; col++ ) str( buf, category.listing.getColumn( col ) ).append( ',' );
+      return close( buf, ']' );
+   }
+
+   /** Remove trailing comma, if any, then append a closing bracket. */
+   private static StringBuilder close ( StringBuilder buf, char bracket ) {
+      if ( buf.charAt( buf.length() - 1 ) == ',' ) buf.setLength( buf.length() - 1 );
+      return buf.append( bracket );
+   }
+
+   /** Append a JSON string.  Unlike escapeJsString, all control characters are escaped. */
+   private static StringBuilder str ( StringBuilder buf, String txt ) {
+      buf.append( '"' );
+      for ( int i = 0, len = txt.length() ; i < len ; i++ ) {
+         final char c = txt.charAt( i );
+         switch ( c ) {
+            case '"'  : buf.append( "\\\"" ); break;
+            case '\\' : buf.append( "\\\\" ); break;
+            case '\n' : buf.append( "\\n" ); break;
+            case '\r' : buf.append( "\\r" ); break;
+            case '\t' : buf.append( "\\t" ); break;
+            default   :
+               if ( c < 0x20 || c == '\u2028' || c == '\u2029' )
+                  buf.append( String.format( "\\u%04x", (int) c ) );
+               else
+                  buf.append( c );
+         }
+      }
+      return buf.append( '"' );
+   }
+
+   private static String decode ( String txt ) {
+      try {
+         return URLDecoder.decode( txt, "UTF-8" );
+      } catch ( UnsupportedEncodingException ex ) {
+         throw new RuntimeException( ex );
+      }
+   }
+
+   private static Map<String, String> params ( String query ) {
+      final Map<String, String> result = new HashMap<>();
+      if ( query == null ) return result;
+      for ( String pair : query.split( "&" ) ) {
+         final int pos = pair.indexOf( '=' );
+         if ( pos < 0 ) result.put( decode( pair ), "" );
+         else result.put( decode( pair.substring( 0, pos ) ), decode( pair.substring( pos + 1 ) ) );
+      }
+      return result;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Metrics
+   /////////////////////////////////////////////////////////////////////////////
+
+   /**
+    * Lock free latency histogram.  Buckets are microseconds with 2 bits of precision (error under 25%).
+    */
+   static class Latency {
+      private final LongAdder count = new LongAdder(), errors = new LongAdder(), totalNs = new LongAdder();
+      private final AtomicLong maxNs = new AtomicLong();
+      private final AtomicLongArray buckets = new AtomicLongArray( 256 );
+
+      void add ( long ns, boolean isError ) {
+         count.increment();
+         if ( isError ) errors.increment();
+         totalNs.add( ns );
+         maxNs.accumulateAndGet( ns, Math::max );
+         buckets.incrementAndGet( bucket( ns / 1000 ) );
+      }
+
+      static int bucket ( long us ) {
+         if ( us < 4 ) return (int) us;
+         final int exp = 63 - Long.numberOfLeadingZeros( us );
+         return ( exp - 1 ) * 4 + (int) ( ( us >>> ( exp - 2 ) ) & 3 );
+      }
+
+      /** @return Largest microsecond of a bucket. */
+      static long upperBound ( int bucket ) {
+         if ( bucket < 4 ) return bucket;
+         final int exp = bucket / 4 + 1;
+         return ( ( 4L + bucket % 4 + 1 ) << ( exp - 2 ) ) - 1;
+      }
+
+      /** @return Approximate latency percentile in microseconds. */
+      long percentile ( double fraction ) {
+         long total = 0;
+         for ( int i = 0 ; i < buckets.length() ; i++ ) total += buckets.get( i );
+         if ( total == 0 ) return 0;
+         final long target = (long) Math.ceil( total * fraction );
+         long seen = 0;
+         for ( int i = 0 ; i < buckets.length() ; i++ ) {
+            seen += buckets.get( i );
+            if ( seen >= target ) return Math.min( upperBound( i ), maxNs.get() / 1000 );
+         }
+         return maxNs.get() / 1000;
+      }
+
+      StringBuilder toJson ( StringBuilder buf ) {
+         final long requests = count.sum();
+         return buf.append( "{\"count\":" ).append( requests )
+            .append( ",\"errors\":" ).append( errors.sum() )
+            .append( ",\"mean_us\":" ).append( requests == 0 ? 0 : totalNs.sum() / requests / 1000 )
+            .append( ",\"p50_us\":" ).append( percentile( 0.5 ) )
+            .append( ",\"p99_us\":" ).append( percentile( 0.99 ) )
+            .append( ",\"max_us\":" ).append( maxNs.get() / 1000 ).append( '}' );
+      }
+   }
+
+   public static void main ( String[] args ) throws Exception {
+      String dbPath = Controller.DB_NAME, host = null;
+      int port = 8080, threads = 4;
+      for ( String arg : args ) {
+         if ( arg.startsWith( "--db=" ) ) dbPath = arg.substring( 5 );
+         else if ( arg.startsWith( "--port=" ) ) port = Integer.parseInt( arg.substring( 7 ) );
+         else if ( arg.startsWith( "--host=" ) ) host = arg.substring( 7 );
+         else if ( arg.startsWith( "--threads=" ) ) threads = Integer.parseInt( arg.substring( 10 ) );
+         else {
+            System.out.println( "Usage: SearchServer [--db=file] [--port=8080] [--host=address] [--threads=4]" );
+            return;
+         }
+      }
+      SearchServer server = new SearchServer( SearchBenchmark.load( new File( dbPath ) ) );
+      InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName( host );
+      System.out.println( "Serving at " + server.start( address, port, threads ) );
+      Runtime.getRuntime().addShutdownHook( new Thread( server::stop ) );
+   }
+}
@@ -0,0 +1,262 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.data.Category;
+import db4e.data.EntryDownloaded;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-only snapshot of the local database, memory mapped at startup to skip loading the database.
+ *
+ * The snapshot is stamped with database size and modify time, and is ignored once the database changes.
+ * Entry content are not decoded on load; each entry gets a view into the mapping that is decoded on demand.
+ *
+ * Layout, big endian.
+ * <pre>
+ * File:     int magic, int version, long database size, long database modify time, long index offset, content, index
+ * Content:  UTF-8 bytes of each entry content
+ * Index:    string pool, int category count, categories
+ * Pool:     int count, then per string: int length, UTF-8 bytes
+ * Category: int id, int name, int field count, int[] fields, int entry count, entries
+ * Entry:    int id, int name, byte has data, int field count, int[] fields, long content offset, int content length or -1
+ * </pre>
+ * Strings in index are pool indices.
+ */
+class Snapshot {
+
+   private static final Logger log = Main.log;
+
+   static final int MAGIC = 0x44344553; // "D4ES"
+   static final int VERSION = 1;
+   private static final int HEADER_SIZE = 32;
+
+   static File fileOf ( File db ) {
+      return new File( db.getPath() + ".snapshot" );
+   }
+
+   /**
+    * Map a snapshot of a database.
+    * @param db Database file.
+    * @return Categories with entry index, or null if snapshot is missing or outdated.
+    * @throws IOException If snapshot cannot be read.
+    */
+   static List<Category> read ( File db ) throws IOException {
+      final File file = fileOf( db );
+      if ( ! file.isFile() ) return null;
+      try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) { // Mappings stay valid after close
+         if ( channel.size() < HEADER_SIZE ) return null;
+         final ByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE );
+         if ( header.getInt() != MAGIC || header.getInt() != VERSION ) return null;
+         if ( header.getLong() != db.length() || header.getLong() != db.lastModified() ) {
+            log.log( Level.INFO, "Snapshot {0} is outdated", file );
+            return null;
+         }
+         final long index = header.getLong();
+         if ( index < HEADER_SIZE || index > channel.size() || index - HEADER_SIZE > Integer.MAX_VALUE ) return null;
+         final ByteBuffer content = channel.map( FileChannel.MapMode.READ_ONLY, HEADER_SIZE, index - HEADER_SIZE );
+         final DataInputStream in = input( channel.map( FileChannel.MapMode.READ_ONLY, index, channel.size() - index ) );
+
+         final String[] pool = new String[ in.readInt() ];
+         for ( int i = 0 ; i < pool.length ; i++ ) {
+            final byte[] bytes = new byte[ in.readInt() ];
+            in.readFully( bytes );
+            pool[ i ] = new String( bytes, UTF_8 );
+         }
+
+         final List<Category> list = new ArrayList<>();
+         for ( int c = in.readInt() ; c > 0 ; c-- ) {
+            final Category category = new Category( pool[ in.readInt() ], pool[ in.readInt() ], strings( in, pool ) );
+            synchronized ( category ) {
+               final int size = in.readInt();
+               category.total_entry.set( size );
+               for ( int i = 0 ; i < size ; i++ ) {
+                  final EntryDownloaded entry = new EntryDownloaded( pool[ in.readInt() ], pool[ in.readInt() ] );
+                  synchronized ( entry ) {
+                     entry.setHasContent( in.readByte() != 0 );
+                     entry.setFields( fields( in, pool ) );
+                     final long offset = in.readLong();
+                     final int length = in.readInt();
+                     if ( length >= 0 ) entry.setContentSource( new View( content, (int) ( offset - HEADER_SIZE ), length ) );
+                  }
+                  category.entries.add( entry );
+               }
+            }
+            list.add( category );
+         }
+         log.log( Level.CONFIG, "Mapped snapshot {0}", file );
+         return list;
+      }
+   }
+
+   private static String[] strings ( DataInputStream in, String[] pool ) throws IOException {
+      final String[] result = new String[ in.readInt() ];
+      for ( int i = 0 ; i < result.length ; i++ )
+         result[ i ] = pool[ in.readInt() ];
+      return result;
+   }
+
+   /** @return Entry fields in an Object array, so that they can be replaced by non-string values. */
+   private static Object[] fields ( DataInputStream in, String[] pool ) throws IOException {
+      final String[] fields = strings( in, pool );
+      return Arrays.copyOf( fields, fields.length, Object[].class );
+   }
+
+   /** @return Data stream that reads from and advances a buffer. */
+   private static DataInputStream input ( ByteBuffer buffer ) {
+      return new DataInputStream( new InputStream() {
+         @Override public int read () {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+         }
+         @Override public int read ( byte[] b, int off, int len ) {
+            if ( ! buffer.hasRemaining() ) return -1;
+            len = Math.min( len, buffer.remaining() );
+            buffer.get( b, off, len );
+            return len;
+         }
+      } );
+   }
+
+   /** Content of an entry in the mapping, decoded on demand. */
+   private static class View implements Supplier<String> {
+      private final ByteBuffer buffer;
+      private final int offset, length;
+
+      private View ( ByteBuffer buffer, int offset, int length ) {
+         this.buffer = buffer;
+         this.offset = offset;
+         this.length = length;
+      }
+
+      @Override public String get () {
+         final byte[] bytes = new byte[ length ];
+         final ByteBuffer src = buffer.duplicate();
+         src.position( offset );
+         src.get( bytes );
+         return new String( bytes, UTF_8 );
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Writer
+   /////////////////////////////////////////////////////////////////////////////
+
+   /**
+    * Write a snapshot to a temp file, and replace the old snapshot when finished.
+    * Categories and entries must be added in database order.
+    */
+   static class Writer implements Closeable {
+      private final File db, target, temp;
+      private final FileChannel channel;
+      private final long size, modified; // Database stamp, taken before reading it
+      private final Map<String, Integer> pool = new HashMap<>();
+      private final List<String> strings = new ArrayList<>();
+      private final ByteArrayOutputStream tables = new ByteArrayOutputStream( 1024 * 1024 );
+      private final DataOutputStream out = new DataOutputStream( tables );
+      private long position = HEADER_SIZE;
+      private int categoryCount = 0;
+      private boolean finished = false;
+
+      Writer ( File db ) throws IOException {
+         this.db = db;
+         size = db.length();
+         modified = db.lastModified();
+         target = fileOf( db );
+         temp = new File( target.getPath() + ".tmp" );
+         channel = FileChannel.open( temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+      }
+
+      void addCategory ( String id, String name, String[] fields, int entryCount ) throws IOException {
+         ++categoryCount;
+         out.writeInt( intern( id ) );
+         out.writeInt( intern( name ) );
+         writeStrings( fields );
+         out.writeInt( entryCount );
+      }
+
+      void addEntry ( String id, String name, boolean hasData, String[] fields, String content ) throws IOException {
+         out.writeInt( intern( id ) );
+         out.writeInt( intern( name ) );
+         out.writeByte( hasData ? 1 : 0 );
+         writeStrings( fields );
+         if ( content == null ) {
+            out.writeLong( 0 );
+            out.writeInt( -1 );
+            return;
+         }
+         final byte[] bytes = content.getBytes( UTF_8 );
+         out.writeLong( position );
+         out.writeInt( bytes.length );
+         position += writeAt( ByteBuffer.wrap( bytes ), position );
+         if ( position > Integer.MAX_VALUE ) throw new IOException( "Snapshot content too big to map" );
+      }
+
+      /** Write index and header, then replace old snapshot. */
+      void finish () throws IOException {
+         final ByteArrayOutputStream index = new ByteArrayOutputStream( tables.size() + strings.size() * 32 + 8 );
+         try ( DataOutputStream head = new DataOutputStream( index ) ) {
+            head.writeInt( strings.size() );
+            for ( String e : strings ) {
+               final byte[] bytes = e.getBytes( UTF_8 );
+               head.writeInt( bytes.length );
+               head.write( bytes );
+            }
+            head.writeInt( categoryCount );
+            out.flush();
+            tables.writeTo( head );
+         }
+         final long indexOffset = position;
+         writeAt( ByteBuffer.wrap( index.toByteArray() ), indexOffset );
+         final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).putInt( MAGIC ).putInt( VERSION ).putLong( size ).putLong( modified ).putLong( indexOffset );
+         header.flip();
+         writeAt( header, 0 );
+         channel.force( true );
+         channel.close();
+         Files.move( temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+         finished = true;
+         log.log( Level.INFO, "Saved snapshot {0} of {1} ({2} bytes)", new Object[]{ target, db, indexOffset + index.size() } );
+      }
+
+      @Override public void close () throws IOException {
+         channel.close();
+         if ( ! finished ) temp.delete();
+      }
+
+      private int intern ( String text ) {
+         return pool.computeIfAbsent( text, ( e ) -> {
+            strings.add( e );
+            return strings.size() - 1;
+         } );
+      }
+
+      private void writeStrings ( String[] texts ) throws IOException {
+         out.writeInt( texts.length );
+         for ( String e : texts ) out.writeInt( intern( e ) );
+      }
+
+      private int writeAt ( ByteBuffer buffer, long offset ) throws IOException {
+         final int length = buffer.remaining();
+         while ( buffer.hasRemaining() ) offset += channel.write( buffer, offset );
+         return length;
+      }
+   }
+}
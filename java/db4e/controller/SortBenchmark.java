@@ -0,0 +1,76 @@
+package db4e.controller;
+
+import db4e.Main;
+import db4e.converter.Convert;
+import db4e.data.Category;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Benchmark of converter sort, on shuffled entries of converted categories.
+ *
+ * Usage: SortBenchmark [--db=file] [--rounds=20] [category ...]
+ * Default categories are Power and Item, the largest ones.
+ */
+public class SortBenchmark {
+
+   private static final Logger log = Main.log;
+
+   /**
+    * Shuffle and sort each category, and log sort time percentiles.
+    * @param converters Categories and the converters that have converted them.
+    * @param rounds Measured rounds.  Same number of warm up rounds are run first.
+    * @return Report text
+    */
+   public static String benchmark ( Map<Category, Convert> converters, int rounds ) {
+      final StringBuilder report = new StringBuilder( "Category\tEntries\tp50 us\tmax us\n" );
+      final Random random = new Random( 4 );
+      for ( Map.Entry<Category, Convert> e : converters.entrySet() ) {
+         final Category category = e.getKey();
+         final long[] times = new long[ rounds ];
+         synchronized ( category ) {
+            for ( int round = -rounds ; round < rounds ; round++ ) {
+               Collections.shuffle( category.entries, random );
+               final long startNs = System.nanoTime();
+               e.getValue().sortEntries();
+               if ( round >= 0 ) times[ round ] = System.nanoTime() - startNs;
+            }
+         }
+         Arrays.sort( times );
+         report.append( category.id ).append( '\t' ).append( category.entries.size() )
+            .append( '\t' ).append( times[ ( rounds - 1 ) / 2 ] / 1000 )
+            .append( '\t' ).append( times[ rounds - 1 ] / 1000 ).append( '\n' );
+      }
+      log.log( Level.INFO, "Sort benchmark ({0} rounds):\n{1}", new Object[]{ rounds, report } );
+      return report.toString();
+   }
+
+   public static void main ( String[] args ) throws Exception {
+      String dbPath = Controller.DB_NAME;
+      int rounds = 20;
+      final List<String> names = new ArrayList<>();
+      for ( String arg : args ) {
+         if ( arg.startsWith( "--db=" ) ) dbPath = arg.substring( 5 );
+         else if ( arg.startsWith( "--rounds=" ) ) rounds = Integer.parseInt( arg.substring( 9 ) );
+         else names.add( arg );
+      }
+      if ( names.isEmpty() ) names.addAll( Arrays.asList( "Power", "Item" ) );
+      final Map<Category, Convert> converters = new LinkedHashMap<>();
+      for ( Category category : Convert.mapExportCategories( SearchBenchmark.loadCategories( new File( dbPath ) ) ) ) {
+         if ( ! names.contains( category.id ) ) continue;
+         final Convert converter = Convert.getConverter( category );
+         converter.convert();
+         converters.put( category, converter );
+      }
+      Convert.afterConvert( null );
+      System.out.print( benchmark( converters, Math.max( 1, rounds ) ) );
+   }
+}
@@ -191,10 +191,8 @@ public class ClassConverter extends Converter {
       return list;
    }
 
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      boolean HybridA = a.getName().startsWith( "Hybrid" );
-      boolean HybridB = b.getName().startsWith( "Hybrid" );
-      if ( HybridA == HybridB ) return a.getName().compareTo( b.getName() );
-      return HybridA ? 1 : -1;
+   @Override protected void sortKey ( SortKey key ) {
+      key.number( e -> e.getName().startsWith( "Hybrid" ) ? 1 : 0 );
+      super.sortKey( key );
    }
 }
\ No newline at end of file
@@ -1,7 +1,6 @@
 package db4e.converter;
 
 import db4e.data.Category;
-import db4e.data.Entry;
 
 public class CompanionConverter extends CreatureConverter {
 
@@ -58,8 +57,8 @@ public class CompanionConverter extends CreatureConverter {
       super.correctEntry();
    }
 
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      int diff = a.getSimpleField( 0 ).compareTo( b.getSimpleField( 0 ) );
-      return diff == 0 ? super.sortEntity( a, b ) : diff;
+   @Override protected void sortKey ( SortKey key ) {
+      key.text( e -> e.getSimpleField( 0 ) );
+      super.sortKey( key );
    }
 }
@@ -3,21 +3,34 @@ package db4e.converter;
 import db4e.Main;
 import db4e.data.Category;
 import db4e.data.Entry;
+import db4e.data.ListingTable;
+import db4e.data.NameIndex;
+import java.io.File;
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import sheepy.util.Utils;
+import static sheepy.util.Utils.escapeJsString;
 import static sheepy.util.Utils.sync;
 
 /**
@@ -28,15 +41,27 @@ public abstract class Convert {
 
    protected static final Logger log = Main.log;
    public static AtomicBoolean stop = new AtomicBoolean();
-   private static final Map<String, AtomicInteger> fixCount = new HashMap<>();
-   private static final Set<String> fixedEntry = new HashSet<>();
+   private static final Map<String, LongAdder> fixCount = new ConcurrentHashMap<>();
+   private static final Map<String, CategoryReport> reports = new ConcurrentHashMap<>();
+   private static final Queue<Set<String>> fixedSets = new ConcurrentLinkedQueue<>(); // Fixed ids of each finished converter
+   private static final int CHUNK_SIZE = 1000; // Categories with at least two chunks are converted in parallel
 
    protected final Category category;
    protected final Set<String> corrections = new HashSet<>();
+   private final Set<String> fixedIds = new HashSet<>(); // Confined to converter thread, merged in afterConvert
 
    protected Entry entry; // Current convert subject
 
    public static void reset () {
+      ConvertPipeline.clear();
+      clearReport();
+   }
+
+   /** Drop correction statistics, including those left by an export that failed or stopped before afterConvert. */
+   private static void clearReport () {
+      fixCount.clear();
+      reports.clear();
+      fixedSets.clear();
    }
 
    /**
@@ -52,6 +77,7 @@ public abstract class Convert {
       final int EXPORT_CAT_COUNT = 20;
       final List<Category> result = new ArrayList<>( EXPORT_CAT_COUNT );
       final Map<String,Category> map = new HashMap<>( 20, 1f ); // A temp dictionary to quickly find cat by id
+      clearReport(); // Start of a conversion run
 
       final String[] itemMeta  = new String[]{ "Type" ,"Level", "Cost", "Rarity", "SourceBook" };
       final Category armour    = new Category( "Armor"    , "Armor"    , itemMeta );
@@ -69,6 +95,7 @@ public abstract class Convert {
          map.put( c.id, c );
 
       // Move entries around before export
+      final Set<String> fixed = new HashSet<>();
       for ( Category source : sync( categories ) ) synchronized( source ) {
          String exportTarget = source.id.equals( "Terrain" ) ? "Trap" : source.id; // Moves terrain into trap.
          Category exported = map.get( exportTarget );
@@ -81,7 +108,7 @@ public abstract class Convert {
                      // Various empty glossaries. Such as "male" or "female".  glossary679 "familiar" does not even have published.
                      if ( entry.getId().equals( "glossary.aspx?id=679" ) || entry.getContent().contains( "</h1><p class=\"flavor\"></p><p class=\"publishedIn\">" ) ) {
                         i.remove();
-                        corrected( entry, "blacklist" );
+                        blacklisted( report( exported.id ), fixed, entry );
                      }
                   }
                   exported.entries.add( new Entry().setId( "glossary0453" ).setName( "Item Set" ) );
@@ -101,7 +128,7 @@ public abstract class Convert {
                            case "background.aspx?id=286" : case "background.aspx?id=287" : case "background.aspx?id=288" :
                            case "background.aspx?id=289" : case "background.aspx?id=290" : case "background.aspx?id=291" :
                               i.remove();
-                              corrected( entry, "blacklist" );
+                              blacklisted( report( exported.id ), fixed, entry );
                         }
                      }
                   }
@@ -110,6 +137,8 @@ public abstract class Convert {
          }
       }
 
+      fixedSets.add( fixed );
+
       // Export big categories first to better balance CPU workload, and to die early on out of memory
       synchronized( result ) { result.sort( ( a, b ) -> b.getExportCount() - a.getExportCount() ); }
       if ( Main.debug.get() && result.size() != EXPORT_CAT_COUNT )
@@ -303,41 +332,88 @@ public abstract class Convert {
       entry.setFields( category, "", fields[1], fields[2], "Artifact", fields[4] );
    } }
 
-   public static void afterConvert () {
-      synchronized( fixCount ) {
-         log.log( Level.INFO, "Corrected {0} entries: \n{1}", new Object[]{
-            fixedEntry.size(),
-            fixCount.entrySet().stream()
-               .sorted( (a,b) -> b.getValue().get() - a.getValue().get() )
-               .map( e -> e.getKey() + " = " + e.getValue().get() ).collect( Collectors.joining( "\n" ) ) } );
-         fixCount.clear();
-         fixedEntry.clear();
+   /**
+    * Log correction summary, write correction report, and reset statistics.
+    *
+    * @param reportFile File to write correction report to.  Null to skip report.
+    */
+   public static void afterConvert ( File reportFile ) {
+      ConvertPipeline.logStats();
+      ConvertPipeline.clear(); // Drop results of entries that were not exported
+      final Set<String> fixedEntry = new HashSet<>( 32768 );
+      for ( Set<String> ids ; ( ids = fixedSets.poll() ) != null ; )
+         fixedEntry.addAll( ids );
+      log.log( Level.INFO, "Corrected {0} entries: \n{1}", new Object[]{
+         fixedEntry.size(),
+         fixCount.entrySet().stream()
+            .sorted( (a,b) -> Long.compare( b.getValue().sum(), a.getValue().sum() ) )
+            .map( e -> e.getKey() + " = " + e.getValue().sum() ).collect( Collectors.joining( "\n" ) ) } );
+      if ( reportFile != null ) try {
+         Files.write( reportFile.toPath(), buildReport( fixedEntry.size() ).getBytes( UTF_8 ) );
+         log.log( Level.CONFIG, "Correction report written to {0}", reportFile );
+      } catch ( IOException ex ) {
+         log.log( Level.WARNING, "Cannot write correction report {0}: {1}", new Object[]{ reportFile, ex } );
       }
+      clearReport();
+   }
+
+   /** Correction statistics of an export category. */
+   private static class CategoryReport {
+      private final Map<String, LongAdder> fixes = new ConcurrentHashMap<>();
+      private final LongAdder fixedCount = new LongAdder(); // Blacklisted entries plus entries fixed by converter
+      private volatile int entryCount;
+      private volatile long convertNs;
+   }
+
+   private static CategoryReport report ( String categoryId ) {
+      return reports.computeIfAbsent( categoryId, k -> new CategoryReport() );
+   }
+
+   private static String buildReport ( int fixedEntry ) {
+      final StringBuilder buf = new StringBuilder( 8192 );
+      buf.append( "{\"fixedEntries\":" ).append( fixedEntry ).append( ",\"fixes\":" );
+      appendFixes( buf, fixCount ).append( ",\n\"categories\":{" );
+      for ( Map.Entry<String, CategoryReport> e : new TreeMap<>( reports ).entrySet() ) {
+         final CategoryReport report = e.getValue();
+         buf.append( "\n \"" ).append( escapeJsString( e.getKey() ) ).append( "\":{\"entries\":" ).append( report.entryCount )
+            .append( ",\"fixedEntries\":" ).append( report.fixedCount.sum() )
+            .append( ",\"convertMs\":" ).append( report.convertNs / 1_000_000 ).append( ",\"fixes\":" );
+         appendFixes( buf, report.fixes ).append( "}," );
+      }
+      if ( ! reports.isEmpty() ) buf.setLength( buf.length() - 1 );
+      return buf.append( "\n}}\n" ).toString();
+   }
+
+   private static StringBuilder appendFixes ( StringBuilder buf, Map<String, LongAdder> fixes ) {
+      buf.append( '{' );
+      fixes.entrySet().stream()
+         .sorted( (a,b) -> Long.compare( b.getValue().sum(), a.getValue().sum() ) )
+         .forEach( e -> buf.append( '"' ).append( escapeJsString( e.getKey() ) ).append( "\":" ).append( e.getValue().sum() ).append( ',' ) );
+      if ( buf.charAt( buf.length() - 1 ) == ',' ) buf.setLength( buf.length() - 1 );
+      return buf.append( '}' );
    }
 
    /** Populate category.index with lookup index. (name => id) */
    public void mapIndex () {
-      Map<String, List<String>> map = category.index = new HashMap<>( 25000, 1f );
-      Set<String> lookups = new HashSet<>();
+      final NameIndex.Builder builder = new NameIndex.Builder();
+      final Set<String> lookups = new HashSet<>();
       for ( Entry entry : sync( category.entries, category ) ) synchronized ( entry ) { // Raw export may skip convert, so we still need to sync!
          this.entry = entry;
-         for ( String name : getLookupName( entry, lookups ) ) {
-            name = name.replaceAll( "[^\\w'-éû]+", " " ).trim().toLowerCase();
-            if ( ! map.containsKey( name ) ) {
-               List<String> idList = new ArrayList<>( 2 ); // Most lookup names do not have multiple entries
-               idList.add( entry.getId() );
-               map.put( name, idList );
-            } else
-               map.get( name ).add( entry.getId() );
-         }
+         builder.addId( entry.getId() );
+         for ( String name : getLookupName( entry, lookups ) )
+            builder.addName( regxIndexSpace.reset( name ).replaceAll( " " ).trim().toLowerCase() );
          lookups.clear();
       }
+      final NameIndex index = category.index = builder.build();
 
       if ( Main.debug.get() ) try {
          // Check short index (1 or 2 characters).  Only exception is hp and "Og, Orog Hero" (monster1132)
-         category.index.keySet().stream().filter( key -> key.length() <= 2 && ! key.equals( "hp" ) && ! key.equals( "og" ) )
-            .forEach( key -> category.index.get( key ).forEach( id ->
-               log.log( Level.WARNING, "Short index \"{2}\": {0} {1}", new Object[]{ id, "", key } ) ) );
+         for ( int i = index.size() - 1 ; i >= 0 && index.getKey( i ).length() <= 2 ; i-- ) {
+            final String key = index.getKey( i );
+            if ( key.equals( "hp" ) || key.equals( "og" ) ) continue;
+            for ( int pos = 0 ; pos < index.getIdCount( i ) ; pos++ )
+               log.log( Level.WARNING, "Short index \"{2}\": {0} {1}", new Object[]{ index.getId( i, pos ), "", key } );
+         }
          // Test entry conversion
          testConversion();
       } catch ( Exception ex ) {
@@ -345,6 +421,7 @@ public abstract class Convert {
       }
    }
 
+   private final Matcher regxIndexSpace = Pattern.compile( "[^\\w'-éû]+" ).matcher( "" );
    protected final Matcher regxNote = Pattern.compile( "\\(.+?\\)|\\[.+?\\]|,.*| -.*", Pattern.CASE_INSENSITIVE ).matcher( "" );
 
    protected Set<String> getLookupName ( Entry entry, Set<String> list ) {
@@ -400,9 +477,64 @@ public abstract class Convert {
    public void convert () throws InterruptedException {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Converting {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
+      final long startNs = System.nanoTime();
       initialise();
+      final int size = category.entries.size();
+      if ( size < CHUNK_SIZE * 2 )
+         convertRange( 0, size );
+      else
+         convertParallel( size );
+
+      beforeSort();
+      try {
+         sortEntries();
+      } catch ( Exception e ) {
+         throw new UnsupportedOperationException( "Error sorting " + category, e );
+      }
+      if ( stop.get() ) throw new InterruptedException();
+      synchronized ( category ) {
+         category.listing = ListingTable.build( category, this::columnParser );
+      }
+      final CategoryReport report = report( category.id );
+      report.entryCount = size;
+      report.fixedCount.add( fixedIds.size() ); // Blacklisted entries are removed before convert and never in fixedIds
+      report.convertNs = System.nanoTime() - startNs;
+      fixedSets.add( fixedIds );
+   }
+
+   /**
+    * Split entries into chunks and convert them in fork join pool.
+    * Each chunk has its own converter, so that matchers and working states are not shared.
+    * Chunk results are merged back into this converter before sort.
+    */
+   private void convertParallel ( int size ) throws InterruptedException {
+      final int chunkCount = ( size + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+      final List<Convert> parts = new ArrayList<>( chunkCount );
+      final List<ForkJoinTask<?>> tasks = new ArrayList<>( chunkCount );
+      for ( int i = 0 ; i < chunkCount ; i++ ) {
+         final Convert part = getConverter( category );
+         final int from = i * CHUNK_SIZE, to = Math.min( size, from + CHUNK_SIZE );
+         part.initialise(); // Initialise in this thread; some converters set category fields.
+         parts.add( part );
+         tasks.add( ForkJoinTask.adapt( () -> part.convertRange( from, to ) ) );
+      }
+      log.log( Level.FINE, "Converting {0} in {1} chunks", new Object[]{ category.id, chunkCount });
+      try {
+         ForkJoinTask.invokeAll( tasks ); // Run in common pool; this thread also takes a chunk.
+      } catch ( RuntimeException ex ) {
+         for ( Throwable e = ex ; e != null ; e = e.getCause() )
+            if ( e instanceof InterruptedException ) throw (InterruptedException) e;
+            else if ( e instanceof UnsupportedOperationException ) throw (UnsupportedOperationException) e;
+         throw ex;
+      }
+      for ( Convert part : parts ) merge( part );
+   }
+
+   private Void convertRange ( int from, int to ) throws InterruptedException {
       final List<Entry> entries = category.entries;
-      for ( Entry entry : entries ) {
+      final CategoryReport report = report( category.id );
+      for ( int i = from ; i < to ; i++ ) {
+         final Entry entry = entries.get( i );
          try { synchronized ( entry ) {
             this.entry = entry;
             convertEntry();
@@ -410,9 +542,9 @@ public abstract class Convert {
                if ( entry.getId().equals( "weapon147" ) ) // Duplicate of Arrow of Fate
                   corrections.clear();
                for ( String fix : corrections )
-                  corrected( entry, fix );
+                  corrected( report, fixedIds, entry, fix );
                if ( corrections.size() > 1 )
-                  corrected( entry, "multiple fix " + corrections.size() + " (bookkeep)" );
+                  corrected( report, fixedIds, entry, "multiple fix " + corrections.size() + " (bookkeep)" );
                corrections.clear();
             }
          } } catch ( Exception e ) {
@@ -420,14 +552,15 @@ public abstract class Convert {
          }
          if ( stop.get() ) throw new InterruptedException();
       }
+      return null;
+   }
 
-      beforeSort();
-      try {
-         category.entries.sort( this::sortEntity );
-      } catch ( Exception e ) {
-         throw new UnsupportedOperationException( "Error sorting " + category, e );
-      }
-      if ( stop.get() ) throw new InterruptedException();
+   /**
+    * Merge working states of a chunk converter, after it has finished converting its chunk.
+    * @param part Chunk converter of the same type.
+    */
+   protected void merge ( Convert part ) {
+      fixedIds.addAll( part.fixedIds );
    }
 
    /**
@@ -440,20 +573,45 @@ public abstract class Convert {
     */
    protected void beforeSort()  { }
 
-   protected int sortEntity ( Entry a, Entry b ) {
-      return a.getName().compareTo( b.getName() );
+   /**
+    * Parser of a listing column's sort value, used to build the typed listing.
+    * @return Parser, or null to treat column as number only if all its texts are numbers.
+    */
+   protected ToDoubleFunction<String> columnParser ( int column ) {
+      return null;
+   }
+
+   /**
+    * Sort category entries by their packed sort keys.  Entries must have been converted.
+    */
+   public void sortEntries () {
+      final List<Entry> entries = category.entries;
+      final SortKey key = new SortKey( entries );
+      sortKey( key );
+      final Entry[] sorted = new Entry[ entries.size() ];
+      final int[] order = key.order();
+      for ( int i = 0 ; i < sorted.length ; i++ ) sorted[ i ] = entries.get( order[ i ] );
+      for ( int i = 0 ; i < sorted.length ; i++ ) entries.set( i, sorted[ i ] );
+   }
+
+   /**
+    * Add sort key parts of this category, most significant first.  Default sort by name.
+    */
+   protected void sortKey ( SortKey key ) {
+      key.text( Entry::getName );
    }
 
    /**
     * Apply common conversions to entry data.
     */
    protected void convertEntry () {
+      final String originalId = entry.getId();
       if ( entry.getName().contains( "’" ) )
          entry.setName( entry.getName().replace( "’", "'" ) );
       if ( entry.getId().contains( ".aspx" ) )
          entry.setId( entry.getId().replace( ".aspx?id=", "" ).toLowerCase() );
       if ( entry.getContent() != null )
-         entry.setContent( normaliseData( entry.getContent() ) );
+         entry.setContent( ConvertPipeline.normalise( this, originalId, entry.getContent() ) );
       correctEntry();
       parseSourceBook();
       // Converter will do some checking if debug is on.
@@ -468,16 +626,22 @@ public abstract class Convert {
 
    /**
     * Log correction and keep track of correction count.
+    * @param report Correction statistics of entry's export category.
+    * @param fixedIds Fixed entry ids of current thread.
     * @param entry Fixed entry.
     * @param fix Type of fix.
     */
-   private static void corrected ( Entry entry, String fix ) {
+   private static void corrected ( CategoryReport report, Set<String> fixedIds, Entry entry, String fix ) {
       log.log( Level.FINE, "Corrected {0} ({1})", new Object[]{ entry, fix });
-      synchronized ( fixCount ) {
-         if ( fixCount.containsKey( fix ) ) fixCount.get( fix ).incrementAndGet();
-         else fixCount.put( fix, new AtomicInteger( 1 ) );
-         fixedEntry.add( entry.getId() );
-      }
+      fixCount.computeIfAbsent( fix, k -> new LongAdder() ).increment();
+      report.fixes.computeIfAbsent( fix, k -> new LongAdder() ).increment();
+      fixedIds.add( entry.getId() );
+   }
+
+   /** Log removal of a blacklisted entry.  Removed entries are not seen by converter, so count them here. */
+   private static void blacklisted ( CategoryReport report, Set<String> fixedIds, Entry entry ) {
+      corrected( report, fixedIds, entry, "blacklist" );
+      report.fixedCount.increment();
    }
 
    /**
@@ -0,0 +1,121 @@
+package db4e.converter;
+
+import db4e.Main;
+import db4e.data.Category;
+import db4e.data.Entry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import sheepy.util.Utils;
+
+/**
+ * Normalise entry content in background as entries are downloaded,
+ * so that export does not need to do it again.
+ *
+ * Normalisation is the same for all categories and is the most expensive step of conversion.
+ * Results are keyed by entry id and validated by length and hash of the raw content, so stale results are not used.
+ * Each result is removed when used, and total cached length is bounded; entries past the bound are normalised on export.
+ */
+public class ConvertPipeline {
+
+   private static final Logger log = Main.log;
+   public static final AtomicBoolean enabled = new AtomicBoolean( true );
+
+   private static final int QUEUE_SIZE = 256;
+   private static final int MAX_CHARS = 32 * 1024 * 1024;
+   private static final Map<String, Normalised> cache = new ConcurrentHashMap<>( 32768 );
+   private static final ThreadLocal<Map<String, Convert>> converters = ThreadLocal.withInitial( HashMap::new );
+   private static final AtomicInteger hit = new AtomicInteger(), miss = new AtomicInteger();
+   private static final AtomicLong size = new AtomicLong(); // Total length of cached data
+
+   // Full queue runs the task in calling thread, which slows down download instead of dropping the entry.
+   private static final ThreadPoolExecutor workers = new ThreadPoolExecutor( 1, 1, 60L, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>( QUEUE_SIZE ), ( task ) -> {
+         Thread thread = new Thread( task, "Convert pipeline" );
+         thread.setDaemon( true );
+         thread.setPriority( Thread.MIN_PRIORITY );
+         return thread;
+      }, new ThreadPoolExecutor.CallerRunsPolicy() );
+
+   static {
+      workers.allowCoreThreadTimeOut( true );
+   }
+
+   private static class Normalised {
+      private final int rawLength, rawHash;
+      private final String data;
+
+      private Normalised ( String raw, String data ) {
+         rawLength = raw.length();
+         rawHash = raw.hashCode();
+         this.data = data;
+      }
+
+      private boolean isFrom ( String raw ) {
+         return raw.length() == rawLength && raw.hashCode() == rawHash;
+      }
+   }
+
+   /**
+    * Queue a freshly downloaded entry for normalisation.
+    *
+    * @param category Original category of the entry.
+    * @param entry Downloaded entry.
+    */
+   public static void submit ( Category category, Entry entry ) {
+      if ( ! enabled.get() ) return;
+      final String id, raw;
+      synchronized ( entry ) {
+         id = entry.getId();
+         raw = entry.getContent();
+      }
+      if ( raw == null ) return;
+      workers.execute( () -> { try {
+         Convert converter = converters.get().computeIfAbsent( category.id, ( key ) -> Convert.getConverter( category ) );
+         final String data = converter.normaliseData( raw );
+         if ( size.get() + data.length() > MAX_CHARS ) return; // Full; normalise on export
+         final Normalised old = cache.put( id, new Normalised( raw, data ) );
+         size.addAndGet( data.length() - ( old == null ? 0 : old.data.length() ) );
+      } catch ( RuntimeException ex ) {
+         log.log( Level.WARNING, "Cannot pre-convert {0}: {1}", new Object[]{ id, Utils.stacktrace( ex ) } );
+      } } );
+   }
+
+   /**
+    * Take normalised content from cache, or normalise it now.
+    *
+    * @param converter Converter to use on cache miss.
+    * @param id Original id of the entry.
+    * @param raw Raw content of the entry.
+    * @return Normalised content.
+    */
+   static String normalise ( Convert converter, String id, String raw ) {
+      final Normalised result = cache.remove( id );
+      if ( result != null ) size.addAndGet( - result.data.length() );
+      if ( result != null && result.isFrom( raw ) ) {
+         hit.incrementAndGet();
+         return result.data;
+      }
+      miss.incrementAndGet();
+      return converter.normaliseData( raw );
+   }
+
+   /** Log and reset cache statistics. */
+   static void logStats () {
+      log.log( Level.FINE, "Convert pipeline: {0} hit, {1} miss, {2} cached.", new Object[]{ hit.getAndSet( 0 ), miss.getAndSet( 0 ), cache.size() } );
+   }
+
+   public static void clear () {
+      workers.getQueue().clear();
+      cache.clear();
+      size.set( 0 );
+   }
+}
@@ -37,6 +37,12 @@ public class Converter extends Convert {
    protected final int LOOKUP = -789;
    private List<Runnable> tests;
 
+   private static final String[] BASE_MARKERS = { "<img ", "<a ", "ublished in" };
+   private static final MarkerMatcher MARKERS = new MarkerMatcher( BASE_MARKERS );
+   private MarkerMatcher markers = MARKERS; // Literal probes of this converter class
+   private String scanned; // Data that the markers were found on
+   private long found; // Bitset of markers found in scanned
+
    /**
     * Apply common conversions to entry data.
     * entry.meta may be set, but other properties will be overwritten.
@@ -88,6 +94,21 @@ public class Converter extends Convert {
       }
    }
 
+   @Override protected void merge ( Convert part ) {
+      super.merge( part );
+      if ( ! Main.debug.get() ) return;
+      final Converter other = (Converter) part;
+      for ( Entry e : other.shortId.values() )
+         if ( shortId.containsKey( e.getId() ) )
+            log.log( Level.WARNING, "{1} duplicate shortid '{2}': {3} & {0}", new Object[]{ e.getId(), e.getName(), e.getId(), shortId.get( e.getId() ).getName() } );
+         else
+            shortId.put( e.getId(), e );
+      if ( other.tests != null ) {
+         if ( tests == null ) tests = new ArrayList<>( 1024 );
+         tests.addAll( other.tests );
+      }
+   }
+
    private static final Map<String, String> books = new HashMap<>();
 
    static {
@@ -457,8 +478,33 @@ public class Converter extends Convert {
       log.log( Level.WARNING, issue + ": {0}", entry );
    }
 
+   /**
+    * Compile literal probes of a converter class, plus those of Converter.
+    * Probes in the matcher are found in one pass when find( String ) is called; others fall back to String.contains.
+    *
+    * @param literals Text probed by find( String ) on most entries.
+    * @return Matcher to be set by useMarkers in the constructor.
+    */
+   protected static MarkerMatcher markers ( String ... literals ) {
+      final String[] list = Arrays.copyOf( BASE_MARKERS, BASE_MARKERS.length + literals.length );
+      System.arraycopy( literals, 0, list, BASE_MARKERS.length, literals.length );
+      return new MarkerMatcher( list );
+   }
+
+   protected final void useMarkers ( MarkerMatcher markers ) {
+      this.markers = markers;
+      scanned = null;
+   }
+
    protected final boolean find ( CharSequence substr ) {
-      return data().contains( substr );
+      final int bit = markers.indexOf( substr );
+      final String data = data();
+      if ( bit < 0 ) return data.contains( substr );
+      if ( data != scanned ) { // Rescan whenever data is changed
+         found = markers.scan( data );
+         scanned = data;
+      }
+      return ( found & ( 1L << bit ) ) != 0;
    }
 
    protected final boolean find ( Matcher regx ) {
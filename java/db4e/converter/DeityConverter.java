@@ -26,9 +26,9 @@ public class DeityConverter extends Converter {
          meta( 0, regxDomain.group( 1 ) );
    }
 
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      int diff = a.getSimpleField( 2 ).compareTo( b.getSimpleField( 2 ) );
-      return diff == 0 ? super.sortEntity( a, b ) : -diff;
+   @Override protected void sortKey ( SortKey key ) {
+      key.text( e -> e.getSimpleField( 2 ), true );
+      super.sortKey( key );
    }
 
    @Override protected Set<String> getLookupName( Entry entry, Set<String> list ) {
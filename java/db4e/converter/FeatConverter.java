@@ -1,7 +1,6 @@
 package db4e.converter;
 
 import db4e.data.Category;
-import db4e.data.Entry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import sheepy.util.Utils;
@@ -65,15 +64,15 @@ public class FeatConverter extends Converter {
       }
    }
 
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      int aTier = 0, bTier = 0;
-      if ( a.getSimpleField( TIER ).equals( "Paragon" ) ) aTier = 1;
-      else if ( a.getSimpleField( TIER ).equals( "Epic" ) ) aTier = 2;
-      if ( b.getSimpleField( TIER ).equals( "Paragon" ) ) bTier = 1;
-      else if ( b.getSimpleField( TIER ).equals( "Epic" ) ) bTier = 2;
-
-      if ( aTier != bTier ) return aTier - bTier;
-      return super.sortEntity( a, b );
+   @Override protected void sortKey ( SortKey key ) {
+      key.number( e -> {
+         switch ( e.getSimpleField( TIER ) ) {
+            case "Paragon" : return 1;
+            case "Epic"    : return 2;
+            default        : return 0;
+         }
+      } );
+      super.sortKey( key );
    }
 
    @Override protected void correctEntry () {
@@ -121,8 +121,8 @@ public class GlossaryConverter extends Converter {
       return list;
    }
 
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      int diff = a.getSimpleField( 0 ).compareTo( b.getSimpleField( 0 ) );
-      return diff == 0 ? super.sortEntity( a, b ) : diff;
+   @Override protected void sortKey ( SortKey key ) {
+      key.text( e -> e.getSimpleField( 0 ) );
+      super.sortKey( key );
    }
 }
\ No newline at end of file
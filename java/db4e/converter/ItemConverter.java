@@ -19,10 +19,15 @@ public class ItemConverter extends LeveledConverter {
    private static int RARITY;
    private static int SOURCE;
    private final boolean isGeneric;
+   private static final MarkerMatcher MARKERS = markers( "<p>Published in", "<b>Group</b>: ", "<b>Weapon: </b>",
+      "implement for bard powers", "as an implement", "primordial shard", "Conjuration", "figurine", "standard", "plant th",
+      "dim light", "bright light of", "mount", ", which is reproduced below.",
+      "this item cannot be purchased or created with the Enchant Magic Item ritual." );
 
    public ItemConverter ( Category category ) {
       super( category ); // Sort by category
       isGeneric = category.id.equals( "Item" );
+      useMarkers( MARKERS );
    }
 
    @Override public void initialise () {
@@ -35,12 +40,10 @@ public class ItemConverter extends LeveledConverter {
       SOURCE = RARITY + 1;
    }
 
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      if ( isGeneric ) {
-         int diff = a.getSimpleField( CATEGORY ).compareTo( b.getSimpleField( CATEGORY ) );
-         if ( diff != 0 ) return diff;
-      }
-      return super.sortEntity( a, b );
+   @Override protected void sortKey ( SortKey key ) {
+      if ( isGeneric )
+         key.text( e -> e.getSimpleField( CATEGORY ) );
+      super.sortKey( key );
    }
 
    private final Matcher regxPowerFrequency = Pattern.compile( "✦\\s*\\(" ).matcher( "" );
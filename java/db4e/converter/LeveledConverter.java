@@ -1,17 +1,22 @@
 package db4e.converter;
 
 import db4e.data.Category;
-import db4e.data.Entry;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 class LeveledConverter extends Converter {
 
    protected int LEVEL = -1;
+   private static final MarkerMatcher MARKERS = markers( "<p>Published in" );
 
    protected LeveledConverter ( Category category ) {
       super( category );
+      useMarkers( MARKERS );
    }
 
    @Override protected void initialise () {
@@ -20,23 +25,51 @@ class LeveledConverter extends Converter {
       // if ( LEVEL < 0 ) throw new IllegalStateException( "Level field not in " + category.name );
    }
 
-   static final Map<Object, Float> levelMap = new HashMap<>();
-
-   @Override protected void beforeSort () {
-      super.beforeSort();
+   /**
+    * Add level part of sort key.  Each distinct level text is parsed once.
+    */
+   protected void levelKey ( SortKey key ) {
       if ( LEVEL < 0 ) return;
-      synchronized ( levelMap ) { // Make sure that sortEntity has all the numbers in this category
-         for ( Entry entry : category.entries ) {
-            Object levelText = entry.getField( LEVEL );
-            if ( levelText.getClass().isArray() )
-               levelText = ( (Object[]) levelText )[1];
-            String level = levelText.toString();
-            if ( ! levelMap.containsKey( level ) ) {
-               float lv = parseLevel( level );
-               levelMap.put( level, lv );
-               if ( lv < -10 ) warn( "Unknown level \"" + levelText + "\"" );
-            }
+      final Map<String, Float> levels = new HashMap<>();
+      key.number( ( e ) -> {
+         Object levelText = e.getField( LEVEL );
+         if ( levelText.getClass().isArray() )
+            levelText = ( (Object[]) levelText )[1];
+         final String level = levelText.toString();
+         Float lv = levels.get( level );
+         if ( lv == null ) {
+            levels.put( level, lv = parseLevel( level ) );
+            if ( lv < -10 ) log.log( Level.WARNING, "Unknown level \"" + level + "\": {0}", e );
          }
+         return lv;
+      } );
+   }
+
+   @Override protected void sortKey ( SortKey key ) {
+      levelKey( key );
+      super.sortKey( key );
+   }
+
+   @Override protected ToDoubleFunction<String> columnParser ( int column ) {
+      if ( column == LEVEL ) return this::parseLevel;
+      if ( category.fields[ column ].equals( "Cost" ) ) return LeveledConverter::parseCost;
+      return super.columnParser( column );
+   }
+
+   private static final Pattern regxCost = Pattern.compile( "(\\d[\\d,]*(?:\\.\\d+)?)\\+?\\s*(gp|sp|cp|pp|ad)?" );
+
+   /** Parse cost such as "3,400+ gp" into gold pieces.  Return NaN if there is no number. */
+   private static double parseCost ( String cost ) {
+      final Matcher m = regxCost.matcher( cost );
+      if ( ! m.find() ) return Double.NaN;
+      final double value = Double.parseDouble( m.group( 1 ).replace( ",", "" ) );
+      if ( m.group( 2 ) == null ) return value;
+      switch ( m.group( 2 ) ) {
+         case "sp" : return value / 10;
+         case "cp" : return value / 100;
+         case "pp" : return value * 100;
+         case "ad" : return value * 10000;
+         default   : return value;
       }
    }
 
@@ -84,26 +117,6 @@ class LeveledConverter extends Converter {
       }
    }
 
-   protected int sortLevel ( Entry a, Entry b ) {
-      if ( LEVEL >= 0 ) {
-         Object aLv = a.getField( LEVEL );
-         Object bLv = b.getField( LEVEL );
-         if ( aLv.getClass().isArray() ) aLv = ( ( Object[] ) aLv )[1];
-         if ( bLv.getClass().isArray() ) bLv = ( ( Object[] ) bLv )[1];
-         float level = levelMap.get( aLv ) - levelMap.get( bLv );
-         if ( level < 0 )
-            return -1;
-         else if ( level > 0 )
-            return 1;
-      }
-      return 0;
-   }
-
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      int lv = sortLevel( a, b );
-      return lv != 0 ? lv : super.sortEntity( a, b );
-   }
-
    @Override protected void correctEntry () {
       switch ( category.id ) {
       case  "Poison":
@@ -0,0 +1,119 @@
+package db4e.converter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Find a fixed set of literal markers in one pass (Aho-Corasick).
+ * Scan result is a bitset of markers found, so a converter can probe many markers without rescanning the content.
+ *
+ * Immutable once built; can be shared by all converters of a class.
+ */
+class MarkerMatcher {
+
+   private final Map<String, Integer> index = new HashMap<>();
+   private final byte[] ascii = new byte[ 128 ]; // Char to alphabet code.  0 = not in any marker.
+   private final char[] others; // Sorted non-ascii chars in markers, code = 128 + position
+   private final int width; // Alphabet size
+   private final int[] next; // Transition table, [ state * width + code ]
+   private final long[] output; // Markers ending at each state, including suffix states
+   private final long all;
+
+   /**
+    * Build a matcher.
+    * @param markers Literal markers, up to 64.
+    */
+   MarkerMatcher ( String ... markers ) {
+      final String[] list = new LinkedHashSet<>( Arrays.asList( markers ) ).toArray( new String[ 0 ] );
+      if ( list.length > 64 ) throw new IllegalArgumentException( "Too many markers: " + list.length );
+
+      // Build alphabet
+      final StringBuilder nonAscii = new StringBuilder();
+      int code = 1, maxState = 1;
+      for ( String marker : list ) {
+         if ( marker.isEmpty() ) throw new IllegalArgumentException( "Empty marker" );
+         maxState += marker.length();
+         for ( char c : marker.toCharArray() )
+            if ( c < 128 ) {
+               if ( ascii[ c ] == 0 ) ascii[ c ] = (byte) code++;
+            } else if ( nonAscii.indexOf( String.valueOf( c ) ) < 0 )
+               nonAscii.append( c );
+      }
+      others = nonAscii.toString().toCharArray();
+      Arrays.sort( others );
+      width = code + others.length;
+
+      // Build trie
+      final int[] trie = new int[ maxState * width ];
+      final long[] out = new long[ maxState ];
+      int stateCount = 1;
+      for ( int i = 0 ; i < list.length ; i++ ) {
+         int state = 0;
+         for ( char c : list[ i ].toCharArray() ) {
+            int pos = state * width + code( c );
+            if ( trie[ pos ] == 0 ) trie[ pos ] = stateCount++;
+            state = trie[ pos ];
+         }
+         out[ state ] |= 1L << i;
+         index.put( list[ i ], i );
+      }
+
+      // Turn trie into automata, breadth first so that fail state is always done before current state.
+      final int[] fail = new int[ stateCount ];
+      final Queue<Integer> queue = new ArrayDeque<>();
+      for ( int c = 0 ; c < width ; c++ )
+         if ( trie[ c ] != 0 ) queue.add( trie[ c ] );
+      while ( ! queue.isEmpty() ) {
+         final int state = queue.poll();
+         out[ state ] |= out[ fail[ state ] ];
+         for ( int c = 0 ; c < width ; c++ ) {
+            final int pos = state * width + c, target = trie[ pos ];
+            if ( target != 0 ) {
+               fail[ target ] = trie[ fail[ state ] * width + c ];
+               queue.add( target );
+            } else
+               trie[ pos ] = trie[ fail[ state ] * width + c ];
+         }
+      }
+      next = Arrays.copyOf( trie, stateCount * width );
+      output = Arrays.copyOf( out, stateCount );
+      all = list.length == 64 ? -1L : ( 1L << list.length ) - 1;
+   }
+
+   private int code ( char c ) {
+      if ( c < 128 ) return ascii[ c ];
+      final int pos = Arrays.binarySearch( others, c );
+      return pos < 0 ? 0 : width - others.length + pos;
+   }
+
+   /**
+    * Get bit position of a marker.
+    * @param marker Literal marker
+    * @return Bit position, or -1 if not a marker of this matcher.
+    */
+   int indexOf ( CharSequence marker ) {
+      final Integer result = index.get( marker.toString() );
+      return result == null ? -1 : result;
+   }
+
+   /**
+    * Scan text for all markers.
+    * @param text Text to scan
+    * @return Bitset of markers found
+    */
+   long scan ( CharSequence text ) {
+      long found = 0;
+      for ( int i = 0, len = text.length(), state = 0 ; i < len ; i++ ) {
+         state = next[ state * width + code( text.charAt( i ) ) ];
+         if ( output[ state ] != 0 ) {
+            found |= output[ state ];
+            if ( found == all ) break;
+         }
+      }
+      return found;
+   }
+}
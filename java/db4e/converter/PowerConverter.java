@@ -15,8 +15,11 @@ public class PowerConverter extends LeveledConverter {
    private final int ACTION = 3;
    private final int KEYWORDS = 4;
 
+   private static final MarkerMatcher MARKERS = markers( "✦", "Racial Power", "<p class=powerstat><b>Attack</b>" );
+
    public PowerConverter ( Category category ) {
       super( category );
+      useMarkers( MARKERS );
    }
 
    @Override protected void initialise () {
@@ -82,16 +85,11 @@ public class PowerConverter extends LeveledConverter {
       }
    }
 
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      int diff = a.getSimpleField( CLASS ).compareTo( b.getSimpleField( CLASS ) );
-      if ( diff != 0 ) return diff;
-      diff = sortLevel( a, b );
-      if ( diff != 0 ) return diff;
-      if ( ! a.getSimpleField( CLASS ).contains( "Power" ) ) { // Feat Power. Skill Power, Wild Talent Power
-         int aFreq = sortType( a.getSimpleField( TYPE ) ), bFreq = sortType( b.getSimpleField( TYPE ) );
-         if ( aFreq != bFreq ) return aFreq - bFreq;
-      }
-      return a.getName().compareTo( b.getName() );
+   @Override protected void sortKey ( SortKey key ) {
+      key.text( e -> e.getSimpleField( CLASS ) );
+      levelKey( key );
+      key.number( e -> e.getSimpleField( CLASS ).contains( "Power" ) ? 0 : sortType( e.getSimpleField( TYPE ) ) ); // Feat Power. Skill Power, Wild Talent Power
+      key.text( Entry::getName );
    }
 
    private int sortType ( String type ) {
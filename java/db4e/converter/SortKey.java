@@ -0,0 +1,102 @@
+package db4e.converter;
+
+import db4e.data.Entry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Packed sort key of a list of entries.
+ *
+ * Parts are added from the most significant to the least.  Each part is turned into a dense rank,
+ * so that each entry's key is a single long and entries can be sorted as primitives.
+ * When a part does not fit, the keys so far are compacted into dense ranks first.
+ * Entry position is the last part, so the sort is stable.
+ */
+class SortKey {
+
+   private final List<Entry> entries;
+   private final long[] keys;
+   private int bits = 0; // Bits used by keys
+
+   SortKey ( List<Entry> entries ) {
+      this.entries = entries;
+      keys = new long[ entries.size() ];
+   }
+
+   /** Add a text part, compared by String.compareTo. */
+   SortKey text ( Function<Entry, String> part ) {
+      return text( part, false );
+   }
+
+   SortKey text ( Function<Entry, String> part, boolean descending ) {
+      final int size = keys.length;
+      final Map<String, Integer> ids = new HashMap<>();
+      final List<String> texts = new ArrayList<>();
+      final int[] ranks = new int[ size ];
+      for ( int i = 0 ; i < size ; i++ ) { // Number each distinct text, then map the numbers to ranks
+         final String text = part.apply( entries.get( i ) );
+         Integer id = ids.get( text );
+         if ( id == null ) {
+            ids.put( text, id = texts.size() );
+            texts.add( text );
+         }
+         ranks[ i ] = id;
+      }
+      final String[] distinct = texts.toArray( new String[ texts.size() ] );
+      Arrays.sort( distinct );
+      final int[] rankOfId = new int[ distinct.length ];
+      for ( int rank = 0 ; rank < distinct.length ; rank++ ) rankOfId[ ids.get( distinct[ rank ] ) ] = rank;
+      for ( int i = 0 ; i < size ; i++ ) ranks[ i ] = rankOfId[ ranks[ i ] ];
+      return add( ranks, distinct.length, descending );
+   }
+
+   /** Add a numeric part, compared by value.  Values must not be NaN. */
+   SortKey number ( ToDoubleFunction<Entry> part ) {
+      final int size = keys.length;
+      final double[] values = new double[ size ];
+      for ( int i = 0 ; i < size ; i++ ) values[ i ] = part.applyAsDouble( entries.get( i ) );
+      final double[] distinct = Arrays.stream( values ).sorted().distinct().toArray();
+      final int[] ranks = new int[ size ];
+      for ( int i = 0 ; i < size ; i++ ) ranks[ i ] = Arrays.binarySearch( distinct, values[ i ] );
+      return add( ranks, distinct.length, false );
+   }
+
+   private SortKey add ( int[] ranks, int distinct, boolean descending ) {
+      final int width = width( distinct );
+      if ( bits + width > 63 - width( keys.length ) ) compact();
+      for ( int i = 0 ; i < keys.length ; i++ )
+         keys[ i ] = ( keys[ i ] << width ) | ( descending ? distinct - 1 - ranks[ i ] : ranks[ i ] );
+      bits += width;
+      return this;
+   }
+
+   /** Replace keys with their dense ranks, which keeps order but takes fewer bits. */
+   private void compact () {
+      final long[] distinct = Arrays.stream( keys ).sorted().distinct().toArray();
+      for ( int i = 0 ; i < keys.length ; i++ ) keys[ i ] = Arrays.binarySearch( distinct, keys[ i ] );
+      bits = width( distinct.length );
+   }
+
+   /** @return Entry positions in sorted order. */
+   int[] order () {
+      final int size = keys.length, width = width( size );
+      if ( bits + width > 63 ) compact();
+      final long[] sorted = new long[ size ];
+      for ( int i = 0 ; i < size ; i++ ) sorted[ i ] = ( keys[ i ] << width ) | i;
+      Arrays.sort( sorted );
+      final int[] result = new int[ size ];
+      final long mask = ( 1L << width ) - 1;
+      for ( int i = 0 ; i < size ; i++ ) result[ i ] = (int) ( sorted[ i ] & mask );
+      return result;
+   }
+
+   /** @return Number of bits to hold 0 to count-1. */
+   private static int width ( int count ) {
+      return count <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros( count - 1 );
+   }
+}
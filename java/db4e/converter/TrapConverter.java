@@ -1,7 +1,6 @@
 package db4e.converter;
 
 import db4e.data.Category;
-import db4e.data.Entry;
 
 public class TrapConverter extends LeveledConverter {
 
@@ -43,9 +42,8 @@ public class TrapConverter extends LeveledConverter {
       super.correctEntry();
    }
 
-   @Override protected int sortEntity ( Entry a, Entry b ) {
-      int diff = a.getSimpleField( TYPE ).compareTo( b.getSimpleField( TYPE ) );
-      if ( diff != 0 ) return diff;
-      return super.sortEntity( a, b );
+   @Override protected void sortKey ( SortKey key ) {
+      key.text( e -> e.getSimpleField( TYPE ) );
+      super.sortKey( key );
    }
 }
\ No newline at end of file
@@ -2,7 +2,6 @@ package db4e.data;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 
@@ -21,7 +20,8 @@ public class Category {
 
    public String[] fields; // Name (id) of compendium fields
    public final List<Entry> entries = new ArrayList<>(); // Entry list
-   public Map<String, List<String>> index; // Lookup name to entry id
+   public NameIndex index; // Lookup name to entry id
+   public ListingTable listing; // Typed listing, built after conversion
 
    public Category( String id, String name, String[] fields ) {
       this.id = id;
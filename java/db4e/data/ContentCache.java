@@ -0,0 +1,48 @@
+package db4e.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Shared LRU cache of entry content loaded on demand, bounded by total content length.
+ *
+ * Keys are content sources, so an entry and its clones share one cached copy.
+ * Content is loaded outside of the cache lock; two threads may load the same content at the same time.
+ */
+public class ContentCache {
+
+   public static final int DEF_MAX_CHARS = 32 * 1024 * 1024;
+   public static volatile int MAX_CHARS = DEF_MAX_CHARS;
+
+   private static final Map<Supplier<String>, String> cache = new LinkedHashMap<>( 1024, 0.75f, true ); // Access order
+   private static long size = 0; // Total length of cached content
+
+   static String get ( Supplier<String> source ) {
+      synchronized ( cache ) {
+         final String cached = cache.get( source );
+         if ( cached != null ) return cached;
+      }
+      final String content = source.get();
+      if ( content == null ) return null;
+      synchronized ( cache ) {
+         final String old = cache.put( source, content );
+         size += content.length() - ( old == null ? 0 : old.length() );
+         // Evict least recently used, but always keep the content just loaded.
+         for ( Iterator<String> i = cache.values().iterator() ; size > MAX_CHARS && cache.size() > 1 ; ) {
+            size -= i.next().length();
+            i.remove();
+         }
+      }
+      return content;
+   }
+
+   /** Drop all cached content, e.g. when data is reset. */
+   public static void clear () {
+      synchronized ( cache ) {
+         cache.clear();
+         size = 0;
+      }
+   }
+}
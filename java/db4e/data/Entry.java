@@ -1,16 +1,22 @@
 package db4e.data;
 
 import java.util.Arrays;
+import java.util.function.Supplier;
 
 /**
  * Represents a data entry.
  * Access are NOT synchronised.  Read and write MUST be synchronised to the entry object.
+ *
+ * Copies are copy-on-write: fields array and content are shared until changed.
+ * Do not modify the array returned by getFields; use setField or setFields.
  */
 public class Entry {
    private String id; // Compendium url of this entry
    private String name; // Display name
    private Object[] fields; // Field data loaded from compendium. Not loaded until export.
+   private boolean sharedFields; // True if fields array is shared with a copy, and must be copied before change.
    private String content; // Actual content. Not loaded until export.
+   private Supplier<String> contentSource; // Load content on access through ContentCache, e.g. from database or mapped snapshot.
 
    public Entry() {}
 
@@ -65,23 +71,42 @@ public class Entry {
 
    public final Entry setFields ( Object ... fields ) {
       this.fields = fields;
+      sharedFields = false;
       return this;
    }
 
    public final Entry setField ( int i, Object field ) {
+      if ( sharedFields ) {
+         fields = fields.clone();
+         sharedFields = false;
+      }
       this.fields[ i ] = field;
       return this;
    }
 
    public final String getContent () {
-      return content;
+      if ( content != null || contentSource == null ) return content;
+      return ContentCache.get( contentSource );
    }
 
    public final Entry setContent ( String content ) {
       this.content = content;
+      contentSource = null;
+      return this;
+   }
+
+   /** Set content to be loaded on demand.  Loaded content is cached but not kept by this entry. */
+   public final Entry setContentSource ( Supplier<String> source ) {
+      content = null;
+      contentSource = source;
       return this;
    }
 
+   /** @return true if content is loaded or can be loaded on demand. */
+   public final boolean isContentSet () {
+      return content != null || contentSource != null;
+   }
+
    public String getUrl () {
       return getId();
    }
@@ -99,12 +124,17 @@ public class Entry {
       return cloneTo( new Entry() );
    }
 
+   /** Copy this entry.  Caller should lock this entry. */
    public <T extends Entry> T cloneTo ( T copy ) {
       synchronized ( copy ) {
          copy.setId( getId() );
          copy.setName( getName() );
-         copy.setFields( Arrays.copyOf( getFields(), getFieldCount() ) );
-         copy.setContent( getContent() );
+         copy.setFields( getFields() );
+         ( (Entry) copy ).sharedFields = sharedFields = fields != null;
+         if ( content == null && contentSource != null )
+            copy.setContentSource( contentSource );
+         else
+            copy.setContent( getContent() );
       }
       return copy;
    }
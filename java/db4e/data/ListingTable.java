@@ -0,0 +1,212 @@
+package db4e.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable typed columnar copy of a category's listing, built once after conversion.
+ * Row order is the listing order at build time.
+ *
+ * Every field column is dictionary encoded: distinct texts are sorted, and each row keeps the code of its text,
+ * so text order is code order.  A column also has a float value per row if it has a level parser,
+ * or if all its non-empty texts are numbers.  Sort and filter work on these primitives.
+ */
+public class ListingTable {
+
+   private static final Pattern regxNumber = Pattern.compile( "-?\\d+(?:\\.\\d+)?" );
+
+   private final String[] columns;
+   private final String[] ids;
+   private final String[] names;
+   private final int[] nameRank; // Unique rank of each row by name, ties broken by row
+   private final String[][] dictionaries; // Sorted distinct texts of each column
+   private final int[][] codes; // Text code of each row of each column
+   private final float[][] numbers; // Value of each row of each column, null if column is not numeric.  NaN if empty.
+   private final Object[][][] arrays; // Original array cells ([ text, number... ]), null if column has none.
+
+   private ListingTable ( String[] columns, String[] ids, String[] names, int[] nameRank, String[][] dictionaries, int[][] codes, float[][] numbers, Object[][][] arrays ) {
+      this.columns = columns;
+      this.ids = ids;
+      this.names = names;
+      this.nameRank = nameRank;
+      this.dictionaries = dictionaries;
+      this.codes = codes;
+      this.numbers = numbers;
+      this.arrays = arrays;
+   }
+
+   public int size () { return ids.length; }
+   public int getColumnCount () { return columns.length; }
+   public String getColumn ( int col ) { return columns[ col ]; }
+   public int getColumn ( String name ) { return Arrays.asList( columns ).indexOf( name ); }
+   public String getId ( int row ) { return ids[ row ]; }
+   public String getName ( int row ) { return names[ row ]; }
+
+   public int getDictionarySize ( int col ) { return dictionaries[ col ].length; }
+   public String getDictionaryText ( int col, int code ) { return dictionaries[ col ][ code ]; }
+   public int getCode ( int col, int row ) { return codes[ col ][ row ]; }
+   public String getText ( int col, int row ) { return dictionaries[ col ][ codes[ col ][ row ] ]; }
+
+   public boolean isNumeric ( int col ) { return numbers[ col ] != null; }
+   /** @return Number of a cell, or NaN if column is not numeric or cell is empty. */
+   public float getNumber ( int col, int row ) { return numbers[ col ] == null ? Float.NaN : numbers[ col ][ row ]; }
+
+   /** @return Cell in original form: String, or Object[] of text and sort numbers. */
+   public Object getCell ( int col, int row ) {
+      if ( arrays[ col ] != null && arrays[ col ][ row ] != null ) return arrays[ col ][ row ];
+      return getText( col, row );
+   }
+
+   /**
+    * Find rows whose column text equals a value.
+    * @return Matching rows, empty if none.
+    */
+   public BitSet filter ( int col, String text ) {
+      final BitSet result = new BitSet( ids.length );
+      final int code = Arrays.binarySearch( dictionaries[ col ], text );
+      if ( code < 0 ) return result;
+      final int[] column = codes[ col ];
+      for ( int row = 0 ; row < column.length ; row++ )
+         if ( column[ row ] == code ) result.set( row );
+      return result;
+   }
+
+   /**
+    * Sort rows by a column, using numbers if numeric and text otherwise.  Ties are sorted by name.
+    * Rows with NaN number come first in ascending order.
+    * @param col Column to sort by, or -1 to sort by name.
+    * @param descending True to sort column values in descending order.  Ties are still ascending by name, unless sorting by name.
+    * @return Rows in sorted order.
+    */
+   public int[] order ( int col, boolean descending ) {
+      final int size = ids.length;
+      final long[] keys = new long[ size ];
+      for ( int row = 0 ; row < size ; row++ ) {
+         int primary = 0;
+         if ( col < 0 ) {
+            if ( descending ) primary = ~nameRank[ row ];
+         } else {
+            if ( numbers[ col ] != null ) {
+               final float value = numbers[ col ][ row ];
+               primary = value != value ? Integer.MIN_VALUE : sortableBits( value );
+            } else
+               primary = codes[ col ][ row ];
+            if ( descending ) primary = ~primary;
+         }
+         keys[ row ] = ( (long) primary << 32 ) | nameRank[ row ];
+      }
+      Arrays.sort( keys );
+      final int[] rowOfRank = new int[ size ];
+      for ( int row = 0 ; row < size ; row++ ) rowOfRank[ nameRank[ row ] ] = row;
+      final int[] result = new int[ size ];
+      for ( int i = 0 ; i < size ; i++ ) result[ i ] = rowOfRank[ (int) keys[ i ] ];
+      return result;
+   }
+
+   /** Map a float to an int of the same signed order. */
+   static int sortableBits ( float value ) {
+      final int bits = Float.floatToIntBits( value == 0 ? 0f : value ); // Merge -0 with +0
+      return bits ^ ( ( bits >> 31 ) & 0x7fffffff );
+   }
+
+   /**
+    * Build a table from a category's current entries.  Caller should hold lock of the category.
+    *
+    * @param category Converted and sorted category.
+    * @param parsers Parser of each column, or null to detect numbers.
+    * @return Built table.
+    */
+   public static ListingTable build ( Category category, IntFunction<ToDoubleFunction<String>> parsers ) {
+      final List<Entry> entries = category.entries;
+      final int size = entries.size(), colCount = category.fields.length;
+      final String[] ids = new String[ size ], names = new String[ size ];
+      final String[][] texts = new String[ colCount ][ size ];
+      final Object[][][] arrays = new Object[ colCount ][][];
+      for ( int row = 0 ; row < size ; row++ ) {
+         final Entry entry = entries.get( row );
+         synchronized ( entry ) {
+            ids[ row ] = entry.getId();
+            names[ row ] = entry.getName();
+            for ( int col = 0 ; col < colCount ; col++ ) {
+               if ( col >= entry.getFieldCount() ) {
+                  texts[ col ][ row ] = "";
+                  continue;
+               }
+               final Object field = entry.getField( col );
+               if ( field instanceof Object[] ) {
+                  if ( arrays[ col ] == null ) arrays[ col ] = new Object[ size ][];
+                  arrays[ col ][ row ] = (Object[]) field;
+               }
+               texts[ col ][ row ] = entry.getSimpleField( col );
+            }
+         }
+      }
+
+      final String[][] dictionaries = new String[ colCount ][];
+      final int[][] codes = new int[ colCount ][];
+      final float[][] numbers = new float[ colCount ][];
+      final Map<String, Integer> lookup = new HashMap<>();
+      final Matcher regxNum = regxNumber.matcher( "" );
+      for ( int col = 0 ; col < colCount ; col++ ) {
+         final String[] column = texts[ col ];
+         final String[] dictionary = Arrays.stream( column ).distinct().sorted().toArray( String[]::new );
+         lookup.clear();
+         for ( int code = 0 ; code < dictionary.length ; code++ ) lookup.put( dictionary[ code ], code );
+         final int[] rowCodes = codes[ col ] = new int[ size ];
+         for ( int row = 0 ; row < size ; row++ ) rowCodes[ row ] = lookup.get( column[ row ] );
+         dictionaries[ col ] = dictionary;
+
+         // Parse each distinct text once.
+         final ToDoubleFunction<String> parser = parsers == null ? null : parsers.apply( col );
+         final float[] values = new float[ dictionary.length ];
+         boolean numeric = true;
+         for ( int i = 0 ; i < dictionary.length ; i++ ) {
+            final String text = dictionary[ i ];
+            if ( parser != null )
+               values[ i ] = (float) parser.applyAsDouble( text );
+            else if ( text.isEmpty() )
+               values[ i ] = Float.NaN;
+            else if ( regxNum.reset( text ).matches() )
+               values[ i ] = Float.parseFloat( text );
+            else {
+               numeric = false;
+               break;
+            }
+         }
+         if ( arrays[ col ] != null ) // Array cells carry their own sort number
+            for ( int row = 0 ; row < size ; row++ ) {
+               final Object[] ary = arrays[ col ][ row ];
+               if ( ary != null && ary.length > 1 && parser == null && ! ( ary[1] instanceof Number ) ) numeric = false;
+            }
+         if ( ! numeric ) continue;
+         final float[] number = numbers[ col ] = new float[ size ];
+         for ( int row = 0 ; row < size ; row++ ) {
+            final Object[] ary = arrays[ col ] == null ? null : arrays[ col ][ row ];
+            if ( ary == null || ary.length < 2 )
+               number[ row ] = values[ rowCodes[ row ] ];
+            else if ( ary[1] instanceof Number )
+               number[ row ] = ( (Number) ary[1] ).floatValue();
+            else
+               number[ row ] = (float) parser.applyAsDouble( ary[1].toString() );
+         }
+      }
+
+      final Integer[] byName = new Integer[ size ];
+      for ( int row = 0 ; row < size ; row++ ) byName[ row ] = row;
+      Arrays.sort( byName, ( a, b ) -> {
+         final int diff = names[ a ].compareTo( names[ b ] );
+         return diff != 0 ? diff : a - b;
+      } );
+      final int[] nameRank = new int[ size ];
+      for ( int rank = 0 ; rank < size ; rank++ ) nameRank[ byName[ rank ] ] = rank;
+
+      return new ListingTable( category.fields.clone(), ids, names, nameRank, dictionaries, codes, numbers, arrays );
+   }
+}
@@ -0,0 +1,132 @@
+package db4e.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable lookup name to entry id index.
+ *
+ * Keys are sorted in export order (longer names first).  Entry ids are stored once and referred by position;
+ * ids of key i are postings[ offsets[i] ] to postings[ offsets[i+1]-1 ].
+ */
+public class NameIndex {
+
+   /** Export order: longer name first, then alphabetic. */
+   public static final Comparator<String> KEY_ORDER = ( a, b ) -> {
+      int diff = b.length() - a.length();
+      if ( diff != 0 ) return diff;
+      return a.compareTo( b );
+   };
+
+   private final String[] ids;
+   private final String[] keys;
+   private final int[] offsets;
+   private final int[] postings;
+
+   private NameIndex ( String[] ids, String[] keys, int[] offsets, int[] postings ) {
+      this.ids = ids;
+      this.keys = keys;
+      this.offsets = offsets;
+      this.postings = postings;
+   }
+
+   public int size () { return keys.length; }
+   public String getKey ( int i ) { return keys[ i ]; }
+   public int getIdCount ( int i ) { return offsets[ i + 1 ] - offsets[ i ]; }
+   public String getId ( int i, int pos ) { return ids[ postings[ offsets[ i ] + pos ] ]; }
+
+   /**
+    * Find entry ids of a lookup name.
+    * @param key Normalised lookup name
+    * @return Entry ids, or null if not found.
+    */
+   public List<String> get ( String key ) {
+      final int i = Arrays.binarySearch( keys, key, KEY_ORDER );
+      if ( i < 0 ) return null;
+      final String[] result = new String[ getIdCount( i ) ];
+      for ( int pos = 0 ; pos < result.length ; pos++ )
+         result[ pos ] = getId( i, pos );
+      return Collections.unmodifiableList( Arrays.asList( result ) );
+   }
+
+   /**
+    * Merge two indices.  Ids of a comes before ids of b.
+    * This is associative, so a list of indices can be reduced in parallel.
+    */
+   public static NameIndex merge ( NameIndex a, NameIndex b ) {
+      final String[] ids = Arrays.copyOf( a.ids, a.ids.length + b.ids.length );
+      System.arraycopy( b.ids, 0, ids, a.ids.length, b.ids.length );
+      final String[] keys = new String[ a.keys.length + b.keys.length ];
+      final int[] offsets = new int[ keys.length + 1 ];
+      final int[] postings = new int[ a.postings.length + b.postings.length ];
+      int ia = 0, ib = 0, k = 0, p = 0;
+      while ( ia < a.keys.length || ib < b.keys.length ) {
+         final int diff = ia >= a.keys.length ? 1 : ib >= b.keys.length ? -1 : KEY_ORDER.compare( a.keys[ ia ], b.keys[ ib ] );
+         offsets[ k ] = p;
+         if ( diff <= 0 ) {
+            keys[ k ] = a.keys[ ia ];
+            for ( int i = a.offsets[ ia ] ; i < a.offsets[ ia + 1 ] ; i++ ) postings[ p++ ] = a.postings[ i ];
+            ia++;
+         }
+         if ( diff >= 0 ) {
+            keys[ k ] = b.keys[ ib ];
+            for ( int i = b.offsets[ ib ] ; i < b.offsets[ ib + 1 ] ; i++ ) postings[ p++ ] = b.postings[ i ] + a.ids.length;
+            ib++;
+         }
+         k++;
+      }
+      offsets[ k ] = p;
+      return new NameIndex( ids, Arrays.copyOf( keys, k ), Arrays.copyOf( offsets, k + 1 ), postings );
+   }
+
+   /**
+    * Build an index by adding entry ids and their lookup names.  Not thread safe.
+    */
+   public static class Builder {
+      private final Map<String, Integer> keyNo = new HashMap<>();
+      private String[] ids = new String[ 256 ];
+      private int idCount = 0;
+      private int[] pairKey = new int[ 256 ], pairId = new int[ 256 ];
+      private int pairCount = 0;
+
+      /** Add an entry id.  Subsequent names are added to this id. */
+      public Builder addId ( String id ) {
+         if ( idCount >= ids.length ) ids = Arrays.copyOf( ids, idCount * 2 );
+         ids[ idCount++ ] = id;
+         return this;
+      }
+
+      /** Add a lookup name to last added id. */
+      public Builder addName ( String key ) {
+         Integer no = keyNo.get( key );
+         if ( no == null ) keyNo.put( key, no = keyNo.size() );
+         if ( pairCount >= pairKey.length ) {
+            pairKey = Arrays.copyOf( pairKey, pairCount * 2 );
+            pairId = Arrays.copyOf( pairId, pairCount * 2 );
+         }
+         pairKey[ pairCount ] = no;
+         pairId[ pairCount++ ] = idCount - 1;
+         return this;
+      }
+
+      public NameIndex build () {
+         final String[] keys = keyNo.keySet().toArray( new String[ keyNo.size() ] );
+         Arrays.sort( keys, KEY_ORDER );
+         final int[] rank = new int[ keys.length ];
+         for ( int i = 0 ; i < keys.length ; i++ )
+            rank[ keyNo.get( keys[ i ] ) ] = i;
+         // Counting sort the pairs by key rank, keeping id order within a key.
+         final int[] offsets = new int[ keys.length + 1 ];
+         for ( int i = 0 ; i < pairCount ; i++ ) offsets[ rank[ pairKey[ i ] ] + 1 ]++;
+         for ( int i = 0 ; i < keys.length ; i++ ) offsets[ i + 1 ] += offsets[ i ];
+         final int[] fill = Arrays.copyOf( offsets, keys.length );
+         final int[] postings = new int[ pairCount ];
+         for ( int i = 0 ; i < pairCount ; i++ ) postings[ fill[ rank[ pairKey[ i ] ] ]++ ] = pairId[ i ];
+         return new NameIndex( Arrays.copyOf( ids, idCount ), keys, offsets, postings );
+      }
+   }
+}
@@ -0,0 +1,99 @@
+package db4e.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Inverted full text index of a category: lower case word token to sorted row numbers.
+ * Row number is the position of the entry in the category's export listing.
+ *
+ * Search terms are substrings, not whole words, so a term fragment matches every token containing it.
+ */
+public class TokenIndex {
+
+   private final String[] tokens; // Sorted
+   private final int[][] rows; // Ascending row numbers of each token
+
+   private TokenIndex ( String[] tokens, int[][] rows ) {
+      this.tokens = tokens;
+      this.rows = rows;
+   }
+
+   public int size () { return tokens.length; }
+   public String getToken ( int i ) { return tokens[ i ]; }
+   public int[] getRows ( int i ) { return rows[ i ]; }
+
+   /**
+    * Find rows containing a fragment in any token.
+    * @param fragment Lower case word characters.
+    * @return Rows that may contain the fragment.
+    */
+   public BitSet find ( String fragment ) {
+      final BitSet result = new BitSet();
+      for ( int i = 0 ; i < tokens.length ; i++ )
+         if ( tokens[ i ].contains( fragment ) )
+            for ( int row : rows[ i ] ) result.set( row );
+      return result;
+   }
+
+   /**
+    * Split text into lower case tokens.  Same rule as the viewer: runs of [A-Za-z0-9_].
+    * @param text Text to split
+    * @param consumer Receive each token; may repeat.
+    */
+   public static void tokenise ( CharSequence text, Consumer<String> consumer ) {
+      final int len = text.length();
+      for ( int i = 0 ; i < len ; ) {
+         while ( i < len && ! isWordChar( text.charAt( i ) ) ) i++;
+         final int start = i;
+         while ( i < len && isWordChar( text.charAt( i ) ) ) i++;
+         if ( i > start ) consumer.accept( text.subSequence( start, i ).toString().toLowerCase() );
+      }
+   }
+
+   static boolean isWordChar ( char c ) {
+      return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) || c == '_';
+   }
+
+   /**
+    * Build an index by adding rows in order.  Not thread safe.
+    */
+   public static class Builder {
+      private final Map<String, int[]> map = new HashMap<>( 32768 ); // Token to [ count, row, row, ... ]
+      private int row = -1;
+
+      /** Add full text of next row. */
+      public Builder add ( CharSequence text ) {
+         ++row;
+         tokenise( text, this::addToken );
+         return this;
+      }
+
+      private void addToken ( String token ) {
+         int[] list = map.get( token );
+         if ( list == null ) {
+            map.put( token, new int[]{ 1, row, 0, 0 } );
+            return;
+         }
+         final int count = list[ 0 ];
+         if ( list[ count ] == row ) return; // Already added
+         if ( count + 1 >= list.length ) map.put( token, list = Arrays.copyOf( list, list.length * 2 ) );
+         list[ count + 1 ] = row;
+         list[ 0 ] = count + 1;
+      }
+
+      public TokenIndex build () {
+         final String[] tokens = map.keySet().toArray( new String[ map.size() ] );
+         Arrays.sort( tokens );
+         final int[][] rows = new int[ tokens.length ][];
+         for ( int i = 0 ; i < tokens.length ; i++ ) {
+            final int[] list = map.get( tokens[ i ] );
+            rows[ i ] = Arrays.copyOfRange( list, 1, list[ 0 ] + 1 );
+         }
+         return new TokenIndex( tokens, rows );
+      }
+   }
+}
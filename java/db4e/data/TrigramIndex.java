@@ -0,0 +1,107 @@
+package db4e.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trigram index of a category: three character substring to rows containing it.
+ * Text is folded before indexing: ASCII letters are lower cased, other non-word characters become space.
+ *
+ * Trigrams found in more than a quarter of rows are kept as "common" without rows, since they cannot narrow down a search.
+ */
+public class TrigramIndex {
+
+   private final String[] trigrams; // Sorted
+   private final int[][] rows; // Ascending row numbers, null if common
+   private final int rowCount;
+
+   private TrigramIndex ( String[] trigrams, int[][] rows, int rowCount ) {
+      this.trigrams = trigrams;
+      this.rows = rows;
+      this.rowCount = rowCount;
+   }
+
+   public int size () { return trigrams.length; }
+   public int getRowCount () { return rowCount; }
+   public String getTrigram ( int i ) { return trigrams[ i ]; }
+   /** @return Rows of a trigram, or null if it is common. */
+   public int[] getRows ( int i ) { return rows[ i ]; }
+
+   /**
+    * Find rows that may contain a literal.
+    * @param literal Text to find, at least three characters.  Will be folded.
+    * @return Candidate rows, or null if the literal is too short to narrow down.
+    */
+   public BitSet find ( CharSequence literal ) {
+      final String text = fold( literal );
+      if ( text.length() < 3 ) return null;
+      BitSet result = null;
+      for ( int i = 0 ; i + 3 <= text.length() ; i++ ) {
+         final int pos = Arrays.binarySearch( trigrams, text.substring( i, i + 3 ) );
+         if ( pos < 0 ) return new BitSet(); // Trigram not in any row
+         if ( rows[ pos ] == null ) continue;
+         final BitSet found = new BitSet( rowCount );
+         for ( int row : rows[ pos ] ) found.set( row );
+         if ( result == null ) result = found;
+         else result.and( found );
+      }
+      if ( result == null ) { // All trigrams are common
+         result = new BitSet( rowCount );
+         result.set( 0, rowCount );
+      }
+      return result;
+   }
+
+   /** Fold text for indexing.  Same rule as the viewer. */
+   public static String fold ( CharSequence text ) {
+      final char[] result = new char[ text.length() ];
+      for ( int i = 0 ; i < result.length ; i++ ) {
+         final char c = text.charAt( i );
+         if ( c >= 'A' && c <= 'Z' ) result[ i ] = (char) ( c + 32 );
+         else result[ i ] = TokenIndex.isWordChar( c ) ? c : ' ';
+      }
+      return new String( result );
+   }
+
+   /**
+    * Build an index by adding rows in order.  Not thread safe.
+    */
+   public static class Builder {
+      private final Map<String, int[]> map = new HashMap<>( 32768 ); // Trigram to [ count, row, row, ... ]
+      private final Set<String> seen = new HashSet<>( 4096 );
+      private int row = -1;
+
+      /** Add full text of next row. */
+      public Builder add ( CharSequence text ) {
+         ++row;
+         final String folded = fold( text );
+         for ( int i = 0 ; i + 3 <= folded.length() ; i++ ) {
+            final String trigram = folded.substring( i, i + 3 );
+            if ( ! seen.add( trigram ) ) continue;
+            int[] list = map.get( trigram );
+            if ( list == null ) map.put( trigram, list = new int[ 4 ] );
+            else if ( list[ 0 ] + 1 >= list.length ) map.put( trigram, list = Arrays.copyOf( list, list.length * 2 ) );
+            list[ ++list[ 0 ] ] = row;
+         }
+         seen.clear();
+         return this;
+      }
+
+      public TrigramIndex build () {
+         final int rowCount = row + 1, common = rowCount / 4;
+         final String[] trigrams = map.keySet().toArray( new String[ map.size() ] );
+         Arrays.sort( trigrams );
+         final int[][] rows = new int[ trigrams.length ][];
+         for ( int i = 0 ; i < trigrams.length ; i++ ) {
+            final int[] list = map.get( trigrams[ i ] );
+            if ( list[ 0 ] <= common || rowCount < 8 )
+               rows[ i ] = Arrays.copyOfRange( list, 1, list[ 0 ] + 1 );
+         }
+         return new TrigramIndex( trigrams, rows, rowCount );
+      }
+   }
+}
@@ -0,0 +1,146 @@
+package db4e.exporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Write many small UTF-8 files asynchronously, with a bounded number of files in flight.
+ *
+ * Callers encode into pooled direct buffers and return as soon as the write is started.
+ * When the limit is reached, new writes wait for old ones to complete.
+ * Errors are thrown by a later write or by await.
+ */
+class AsyncFileWriter implements Closeable {
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private final int maxInFlight;
+   private final Semaphore permits;
+   private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+   private final AtomicReference<Throwable> error = new AtomicReference<>();
+   private final ThreadLocal<CharsetEncoder> encoder = ThreadLocal.withInitial( () -> UTF_8.newEncoder()
+         .onMalformedInput( CodingErrorAction.REPLACE ).onUnmappableCharacter( CodingErrorAction.REPLACE ) );
+   private final ThreadLocal<char[]> chars = ThreadLocal.withInitial( () -> new char[ BUFFER_SIZE ] );
+
+   /** @param maxInFlight Max number of files being written at the same time. */
+   AsyncFileWriter ( int maxInFlight ) {
+      this.maxInFlight = maxInFlight;
+      permits = new Semaphore( maxInFlight );
+   }
+
+   /**
+    * Create or overwrite a file with given text.  Text can be reused once this method returns.
+    * @param path File to write.
+    * @param text File content.
+    */
+   void write ( Path path, StringBuilder text ) throws IOException {
+      checkError();
+      try {
+         permits.acquire();
+      } catch ( InterruptedException ex ) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException();
+      }
+      final ByteBuffer buffer;
+      final AsynchronousFileChannel channel;
+      try {
+         buffer = encode( text );
+         channel = AsynchronousFileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+      } catch ( IOException | RuntimeException ex ) {
+         permits.release();
+         throw ex;
+      }
+      channel.write( buffer, 0, null, new CompletionHandler<Integer, Void>() {
+         private long position = 0;
+         @Override public void completed ( Integer written, Void attachment ) {
+            position += written;
+            if ( buffer.hasRemaining() ) {
+               channel.write( buffer, position, null, this );
+               return;
+            }
+            done( null );
+         }
+         @Override public void failed ( Throwable ex, Void attachment ) {
+            done( ex );
+         }
+         private void done ( Throwable ex ) {
+            try {
+               channel.close();
+            } catch ( IOException closeEx ) {
+               if ( ex == null ) ex = closeEx;
+            }
+            if ( ex != null ) error.compareAndSet( null, ex );
+            if ( buffer.isDirect() ) {
+               buffer.clear();
+               pool.add( buffer );
+            }
+            permits.release();
+         }
+      } );
+   }
+
+   private ByteBuffer encode ( StringBuilder text ) {
+      final int len = text.length();
+      char[] src = chars.get();
+      if ( src.length < len ) chars.set( src = new char[ Math.max( len, src.length * 2 ) ] );
+      text.getChars( 0, len, src, 0 );
+      final CharBuffer in = CharBuffer.wrap( src, 0, len );
+      final CharsetEncoder enc = encoder.get().reset();
+
+      ByteBuffer buffer = pool.poll();
+      if ( buffer == null ) buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+      CoderResult result = enc.encode( in, buffer, true );
+      if ( ! result.isOverflow() ) result = enc.flush( buffer );
+      if ( result.isOverflow() ) { // Too big for pooled buffer.  Re-encode into a one-off buffer.
+         buffer.clear();
+         pool.add( buffer );
+         buffer = ByteBuffer.allocate( (int) ( len * (double) enc.maxBytesPerChar() ) + 16 );
+         in.rewind();
+         enc.reset().encode( in, buffer, true );
+         enc.flush( buffer );
+      }
+      buffer.flip();
+      return buffer;
+   }
+
+   private void checkError () throws IOException {
+      final Throwable ex = error.get();
+      if ( ex == null ) return;
+      if ( ex instanceof IOException ) throw new IOException( ex.getMessage(), ex );
+      throw new IOException( ex );
+   }
+
+   /** Wait for all writes to complete, and throw the first error if any. */
+   void await () throws IOException {
+      try {
+         permits.acquire( maxInFlight );
+         permits.release( maxInFlight );
+      } catch ( InterruptedException ex ) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException();
+      }
+      checkError();
+   }
+
+   @Override public void close () throws IOException {
+      try {
+         await();
+      } finally {
+         pool.clear();
+      }
+   }
+}
@@ -0,0 +1,257 @@
+package db4e.exporter;
+
+import static db4e.exporter.ExporterRawColumnar.ENC_RLE;
+import static db4e.exporter.ExporterRawColumnar.MAGIC;
+import static db4e.exporter.ExporterRawColumnar.TYPE_CONTENT;
+import static db4e.exporter.ExporterRawColumnar.TYPE_DICT;
+import static db4e.exporter.ExporterRawColumnar.TYPE_FLOAT;
+import static db4e.exporter.ExporterRawColumnar.TYPE_STRING;
+import static db4e.exporter.ExporterRawColumnar.VERSION;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Memory mapped reader of files written by ExporterRawColumnar.  Values are read from the mapping on demand.
+ *
+ * Layout, big endian.  Strings lists are int count, int[count+1] byte offsets, then UTF-8 bytes.
+ * <pre>
+ * File:     int magic, int version, long footer offset, category blocks, footer
+ * Footer:   int count, then per category: UTF id, UTF name, int rows, long block offset, long block length
+ * Block:    int rows, int columns, per column: UTF name, byte type, int data length; then column data
+ * String:   string list of every row
+ * Dict:     string list of distinct texts, byte encoding, codes: int[rows], or int runs, int[runs] end row, int[runs] code
+ * Float:    float[rows], NaN if empty
+ * Content:  int rows per block, int block count, int[count+1] offsets, deflated string lists
+ * </pre>
+ * Tables are thread safe.
+ */
+public class ColumnarReader implements Closeable {
+
+   private final FileChannel channel;
+   private final Map<String, long[]> blocks = new LinkedHashMap<>(); // Id to [ offset, length ]
+   private final Map<String, String> names = new LinkedHashMap<>();
+   private final Map<String, Table> tables = new LinkedHashMap<>();
+
+   private ColumnarReader ( FileChannel channel ) {
+      this.channel = channel;
+   }
+
+   public static ColumnarReader open ( Path path ) throws IOException {
+      final FileChannel channel = FileChannel.open( path, StandardOpenOption.READ );
+      final ColumnarReader reader = new ColumnarReader( channel );
+      try {
+         final ByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, 16 );
+         if ( header.getInt() != MAGIC ) throw new IOException( "Not a columnar export: " + path );
+         if ( header.getInt() != VERSION ) throw new IOException( "Unsupported columnar version: " + path );
+         final long footer = header.getLong();
+         if ( footer <= 0 ) throw new IOException( "Incomplete columnar export: " + path );
+         final DataInputStream in = input( channel.map( FileChannel.MapMode.READ_ONLY, footer, channel.size() - footer ) );
+         for ( int i = in.readInt() ; i > 0 ; i-- ) {
+            final String id = in.readUTF();
+            reader.names.put( id, in.readUTF() );
+            in.readInt(); // Rows
+            reader.blocks.put( id, new long[]{ in.readLong(), in.readLong() } );
+         }
+      } catch ( IOException | RuntimeException ex ) {
+         channel.close();
+         throw ex;
+      }
+      return reader;
+   }
+
+   /** @return Category ids in export order. */
+   public List<String> getCategories () {
+      return Collections.unmodifiableList( new ArrayList<>( blocks.keySet() ) );
+   }
+
+   public String getCategoryName ( String id ) {
+      return names.get( id );
+   }
+
+   /** @return Table of a category, or null if not found.  Mapped on first call. */
+   public synchronized Table getTable ( String id ) throws IOException {
+      Table table = tables.get( id );
+      if ( table == null ) {
+         final long[] block = blocks.get( id );
+         if ( block == null ) return null;
+         tables.put( id, table = new Table( channel.map( FileChannel.MapMode.READ_ONLY, block[0], block[1] ) ) );
+      }
+      return table;
+   }
+
+   @Override public synchronized void close () throws IOException {
+      tables.clear();
+      channel.close();
+   }
+
+   /** @return Data stream that reads from and advances a buffer. */
+   private static DataInputStream input ( ByteBuffer buffer ) {
+      return new DataInputStream( new InputStream() {
+         @Override public int read () {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+         }
+         @Override public int read ( byte[] b, int off, int len ) {
+            if ( ! buffer.hasRemaining() ) return -1;
+            len = Math.min( len, buffer.remaining() );
+            buffer.get( b, off, len );
+            return len;
+         }
+      } );
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Table
+   /////////////////////////////////////////////////////////////////////////////
+
+   /** A mapped category. */
+   public static class Table {
+      private final ByteBuffer buffer;
+      private final int size;
+      private final String[] columns;
+      private final byte[] types;
+      private final int[] starts; // Data position of each column
+      private int contentCol = -1;
+      private int cachedBlock = -1; // Last inflated content block
+      private ByteBuffer cachedContent;
+
+      private Table ( ByteBuffer buffer ) throws IOException {
+         this.buffer = buffer;
+         final ByteBuffer header = buffer.duplicate();
+         final DataInputStream in = input( header );
+         size = in.readInt();
+         final int count = in.readInt();
+         columns = new String[ count ];
+         types = new byte[ count ];
+         final int[] lengths = new int[ count ];
+         for ( int i = 0 ; i < count ; i++ ) {
+            columns[ i ] = in.readUTF();
+            types[ i ] = in.readByte();
+            lengths[ i ] = in.readInt();
+            if ( types[ i ] == TYPE_CONTENT ) contentCol = i;
+         }
+         starts = new int[ count ];
+         int pos = header.position();
+         for ( int i = 0 ; i < count ; i++ ) {
+            starts[ i ] = pos;
+            pos += lengths[ i ];
+         }
+      }
+
+      public int size () { return size; }
+      public int getColumnCount () { return columns.length; }
+      public String getColumn ( int col ) { return columns[ col ]; }
+      public int getColumn ( String name ) { return Arrays.asList( columns ).indexOf( name ); }
+      public boolean isNumeric ( int col ) { return types[ col ] == TYPE_FLOAT; }
+      public boolean isDictionary ( int col ) { return types[ col ] == TYPE_DICT; }
+
+      /** @return Number of a float column cell, NaN if empty. */
+      public float getNumber ( int col, int row ) {
+         check( col, TYPE_FLOAT );
+         return buffer.getFloat( starts[ col ] + row * 4 );
+      }
+
+      public int getDictionarySize ( int col ) {
+         check( col, TYPE_DICT );
+         return buffer.getInt( starts[ col ] );
+      }
+
+      public String getDictionaryText ( int col, int code ) {
+         check( col, TYPE_DICT );
+         return string( buffer, starts[ col ], code );
+      }
+
+      /** @return Dictionary code of a cell.  Codes are in text order. */
+      public int getCode ( int col, int row ) {
+         check( col, TYPE_DICT );
+         final int dictSize = buffer.getInt( starts[ col ] );
+         final int dictEnd = starts[ col ] + 4 + ( dictSize + 1 ) * 4 + buffer.getInt( starts[ col ] + 4 + dictSize * 4 );
+         if ( buffer.get( dictEnd ) != ENC_RLE )
+            return buffer.getInt( dictEnd + 1 + row * 4 );
+         final int runs = buffer.getInt( dictEnd + 1 ), ends = dictEnd + 5;
+         int low = 0, high = runs - 1;
+         while ( low < high ) { // Find first run whose end is after row
+            final int mid = ( low + high ) >>> 1;
+            if ( buffer.getInt( ends + mid * 4 ) <= row ) low = mid + 1;
+            else high = mid;
+         }
+         return buffer.getInt( ends + runs * 4 + low * 4 );
+      }
+
+      /** @return Text of any column. */
+      public String getText ( int col, int row ) {
+         switch ( types[ col ] ) {
+            case TYPE_STRING  : return string( buffer, starts[ col ], row );
+            case TYPE_DICT    : return getDictionaryText( col, getCode( col, row ) );
+            case TYPE_CONTENT : return getContent( row );
+            default :
+               final float value = getNumber( col, row );
+               return value != value ? "" : value == (long) value ? Long.toString( (long) value ) : Float.toString( value );
+         }
+      }
+
+      /** @return Content of a row.  Inflates its content block, and keeps the last block. */
+      public synchronized String getContent ( int row ) {
+         if ( contentCol < 0 ) throw new IllegalStateException( "No content column" );
+         final int start = starts[ contentCol ], blockRows = buffer.getInt( start ), block = row / blockRows;
+         if ( block != cachedBlock ) {
+            final int blockCount = buffer.getInt( start + 4 ), data = start + 8 + ( blockCount + 1 ) * 4;
+            final int from = buffer.getInt( start + 8 + block * 4 ), to = buffer.getInt( start + 8 + ( block + 1 ) * 4 );
+            final ByteBuffer src = buffer.duplicate();
+            src.position( data + from ).limit( data + to );
+            final byte[] input = new byte[ to - from ];
+            src.get( input );
+            final Inflater inflater = new Inflater();
+            try {
+               inflater.setInput( input );
+               byte[] output = new byte[ Math.max( 1024, input.length * 4 ) ];
+               int len = 0;
+               while ( ! inflater.finished() ) {
+                  if ( len == output.length ) output = Arrays.copyOf( output, output.length * 2 );
+                  final int n = inflater.inflate( output, len, output.length - len );
+                  if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) throw new IllegalStateException( "Truncated content block " + block );
+                  len += n;
+               }
+               cachedContent = ByteBuffer.wrap( output, 0, len );
+            } catch ( DataFormatException ex ) {
+               throw new IllegalStateException( ex );
+            } finally {
+               inflater.end();
+            }
+            cachedBlock = block;
+         }
+         return string( cachedContent, 0, row % blockRows );
+      }
+
+      private void check ( int col, byte type ) {
+         if ( types[ col ] != type ) throw new IllegalArgumentException( "Column " + columns[ col ] + " is not of type " + type );
+      }
+
+      /** Read a string from a string list. */
+      private static String string ( ByteBuffer buffer, int list, int index ) {
+         final int count = buffer.getInt( list ), offsets = list + 4, data = offsets + ( count + 1 ) * 4;
+         final int from = buffer.getInt( offsets + index * 4 ), to = buffer.getInt( offsets + ( index + 1 ) * 4 );
+         if ( buffer.hasArray() )
+            return new String( buffer.array(), buffer.arrayOffset() + data + from, to - from, UTF_8 );
+         final byte[] bytes = new byte[ to - from ];
+         final ByteBuffer src = buffer.duplicate();
+         src.position( data + from );
+         src.get( bytes );
+         return new String( bytes, UTF_8 );
+      }
+   }
+}
@@ -17,18 +17,24 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 import static sheepy.util.Utils.escapeJsString;
 
 /**
  * Base exporter class that provides export interface and support functions.
+ *
+ * Concurrency: preExport and postExport run alone, while export of different categories run concurrently.
+ * _export must guard resources shared between categories, such as a single output file.
  */
 public abstract class Exporter implements Closeable {
 
    public static AtomicBoolean stop = new AtomicBoolean();
    protected static final Logger log = Main.log;
 
+   private final ReadWriteLock phase = new ReentrantReadWriteLock(); // Write lock for pre/post export, read lock for export
    private Consumer<String> stopChecker;
    protected File target;
    protected ProgressState state;
@@ -39,19 +45,36 @@ public abstract class Exporter implements Closeable {
       this.state = state;
    }
 
-   public synchronized final void preExport ( List<Category> categories ) throws IOException, InterruptedException {
-      _preExport( categories ); // Synchronized
+   public final void preExport ( List<Category> categories ) throws IOException, InterruptedException {
+      phase.writeLock().lock();
+      try {
+         _preExport( categories ); // Exclusive
+      } finally {
+         phase.writeLock().unlock();
+      }
    }
-   public synchronized final void export ( Category category ) throws IOException, InterruptedException {
-      _export( category ); // Synchronized
+   public final void export ( Category category ) throws IOException, InterruptedException {
+      phase.readLock().lock();
+      try {
+         _export( category ); // Concurrent
+      } finally {
+         phase.readLock().unlock();
+      }
    }
-   public synchronized final void postExport ( List<Category> categories ) throws IOException, InterruptedException {
-      _postExport( categories ); // Synchronized
+   public final void postExport ( List<Category> categories ) throws IOException, InterruptedException {
+      phase.writeLock().lock();
+      try {
+         _postExport( categories ); // Exclusive
+      } finally {
+         phase.writeLock().unlock();
+      }
    }
 
    protected abstract void _preExport ( List<Category> categories ) throws IOException, InterruptedException;
    protected abstract void _export ( Category category ) throws IOException, InterruptedException;
    protected void _postExport ( List<Category> categories ) throws IOException, InterruptedException {};
+   /** Called when a category fails before or during export, so that other categories do not wait for it. */
+   public void abort () { }
    @Override public synchronized void close() throws IOException { }
 
    protected synchronized void checkStop ( String status ) {
@@ -10,6 +10,10 @@ import db4e.controller.ProgressState;
 import db4e.converter.Convert;
 import db4e.data.Category;
 import db4e.data.Entry;
+import db4e.data.ListingTable;
+import db4e.data.NameIndex;
+import db4e.data.TokenIndex;
+import db4e.data.TrigramIndex;
 import static db4e.exporter.Exporter.stop;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -23,15 +27,13 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import static sheepy.util.Utils.escapeJsString;
 import sheepy.util.Ascii85;
 import sheepy.util.ResourceUtils;
 
@@ -98,18 +100,26 @@ public class ExporterMain extends Exporter {
       final String listCol = backspace( buffer ).append( "]," ).toString();
       buffer.setLength( 0 );
       buffer.append( '[' );
-      for ( Entry entry : category.entries ) {
-         str( buffer.append( '[' ), entry.getId() ).append( ',' );
-         str( buffer, entry.getName() ).append( ',' );
-         for ( Object field : entry.getFields() ) {
-            if ( field.getClass().isArray() ) {
+      final ListingTable table = category.listing != null ? category.listing : ListingTable.build( category, null );
+      final String[][] cells = new String[ table.getColumnCount() ][]; // Each distinct text is quoted once
+      for ( int col = 0 ; col < cells.length ; col++ ) {
+         cells[ col ] = new String[ table.getDictionarySize( col ) ];
+         for ( int code = 0 ; code < cells[ col ].length ; code++ )
+            cells[ col ][ code ] = '"' + escapeJsString( table.getDictionaryText( col, code ) ) + '"';
+      }
+      for ( int row = 0, size = table.size() ; row < size ; row++ ) {
+         str( buffer.append( '[' ), table.getId( row ) ).append( ',' );
+         str( buffer, table.getName( row ) ).append( ',' );
+         for ( int col = 0 ; col < cells.length ; col++ ) {
+            final Object field = table.getCell( col, row );
+            if ( field instanceof Object[] ) {
                Object[] ary = (Object[]) field;
                buffer.append( "[\"" ).append( ary[0] ).append( "\"," );
                for ( int i = 1, len = ary.length ; i < len ; i++ )
                   buffer.append( ary[i] ).append( ',' );
                backspace( buffer ).append( "]," );
             } else
-               str( buffer, field.toString() ).append( ',' );
+               buffer.append( cells[ col ][ table.getCode( col, row ) ] ).append( ',' );
          }
          backspace( buffer ).append( "]," );
       }
@@ -123,15 +133,21 @@ public class ExporterMain extends Exporter {
       final String textCat = buffer.toString();
       buffer.setLength( 0 );
       buffer.append( '{' );
+      final TokenIndex.Builder tokens = new TokenIndex.Builder();
+      final TrigramIndex.Builder trigrams = new TrigramIndex.Builder();
       for ( Entry entry : category.entries ) {
          String fulltext = converter.textData( entry.getContent() );
          buffer.ensureCapacity( buffer.length() + entry.getId().length() + fulltext.length() + 12 );
          str( buffer, entry.getId() ).append( ':' );
          str( buffer, fulltext ).append( ',' );
+         tokens.add( fulltext );
+         trigrams.add( fulltext );
       }
       try ( OutputStreamWriter writer = openStream( catPath + "/_index.js" ) ) {
          writeData( writer, "od.reader.jsonp_data_index(20130616," + textCat, backspace( buffer ).append( '}' ), ")" );
       }
+      writeTokens( catPath + "/_tokens.js", textCat, tokens.build(), buffer );
+      writeTrigrams( catPath + "/_trigrams.js", textCat, trigrams.build(), buffer );
       buffer = null;
       state.add( category.entries.size() );
 
@@ -167,60 +183,108 @@ public class ExporterMain extends Exporter {
    }
 
    private void writeIndex ( String target, List<Category> categories ) throws IOException, InterruptedException {
-      Map<String, List<String>> index = new HashMap<>();
+      final List<NameIndex> indices = new ArrayList<>( categories.size() );
       for ( Category category : categories ) synchronized ( category ) {
-         if ( index.isEmpty() )
-            index.putAll( category.index );
-         else if ( category.index != null )
-            category.index.entrySet().forEach( ( entry ) -> {
-               List<String> list = index.get( entry.getKey() );
-               if ( list == null )
-                  index.put( entry.getKey(), new ArrayList<>( entry.getValue() ) );
-               else
-                  list.addAll( entry.getValue() );
-            });
+         if ( category.index != null ) indices.add( category.index );
       }
+      // Ordered parallel reduce; ids of same name stay in category order.
+      final NameIndex index = indices.parallelStream().reduce( NameIndex::merge ).orElseGet( () -> new NameIndex.Builder().build() );
 
-      String[] names = index.keySet().toArray( new String[ index.size() ] );
-      Arrays.sort( names, ( a, b ) -> {
-         int diff = b.length() - a.length();
-         if ( diff != 0 ) return diff;
-         return a.compareTo( b );
-      });
-
-      StringBuilder index_buffer = new StringBuilder( 810_000 );
+      final StringBuilder index_buffer = new StringBuilder( 810_000 );
       index_buffer.append( '{' );
-      for ( String name : names ) {
-         str( index_buffer, name ).append( ':' );
-         List<String> ids = index.get( name );
-         if ( ids.size() == 1 )
-            str( index_buffer, ids.get(0) ).append( ',' );
+      for ( int i = 0, size = index.size() ; i < size ; i++ ) {
+         str( index_buffer, index.getKey( i ) ).append( ':' );
+         final int count = index.getIdCount( i );
+         if ( count == 1 )
+            str( index_buffer, index.getId( i, 0 ) ).append( ',' );
          else {
             index_buffer.append( '[' );
-            for ( String id : ids ) str( index_buffer, id ).append( ',' );
+            for ( int pos = 0 ; pos < count ; pos++ ) str( index_buffer, index.getId( i, pos ) ).append( ',' );
             backspace( index_buffer ).append( "]," );
          }
       }
-      backspace( index_buffer ).append( '}' );
+      if ( index.size() > 0 ) backspace( index_buffer );
+      index_buffer.append( '}' );
 
       try ( OutputStreamWriter writer = openStream( target + "/index.js" ) ) {
          writeData( writer, "od.reader.jsonp_name_index(20160808,", index_buffer, ")" );
       }
    }
 
-   private Map<Thread, Encoder> encoders = new WeakHashMap<>( 8, 1.0f );
+   /**
+    * Write token index of a category.  Each token maps to its rows in listing order,
+    * written as base 36 gaps joined by comma, e.g. rows 3, 5, 40 => "3,2,z".
+    */
+   private void writeTokens ( String path, String textCat, TokenIndex index, StringBuilder buffer ) throws IOException, InterruptedException {
+      buffer.append( '{' );
+      for ( int i = 0, size = index.size() ; i < size ; i++ ) {
+         str( buffer, index.getToken( i ) ).append( ":\"" );
+         int last = 0;
+         for ( int row : index.getRows( i ) ) {
+            buffer.append( Integer.toString( row - last, 36 ) ).append( ',' );
+            last = row;
+         }
+         backspace( buffer ).append( "\"," );
+      }
+      if ( index.size() > 0 ) backspace( buffer );
+      try ( OutputStreamWriter writer = openStream( path ) ) {
+         writeData( writer, "od.reader.jsonp_data_tokens(20261018," + textCat, buffer.append( '}' ), ")" );
+      }
+   }
+
+   private static final String BITMAP_DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz-_";
+
+   /**
+    * Write trigram index of a category.  Each trigram maps to its rows, in the shorter of two forms:
+    * row gaps like writeTokens, or "~" followed by a bitmap of six rows per character.
+    * Common trigrams map to "*".
+    */
+   private void writeTrigrams ( String path, String textCat, TrigramIndex index, StringBuilder buffer ) throws IOException, InterruptedException {
+      final int rowCount = index.getRowCount(), bitmapLength = ( rowCount + 5 ) / 6;
+      final char[] bitmap = new char[ bitmapLength ];
+      final StringBuilder gaps = new StringBuilder( 256 );
+      buffer.append( '{' );
+      for ( int i = 0, size = index.size() ; i < size ; i++ ) {
+         str( buffer, index.getTrigram( i ) ).append( ":\"" );
+         final int[] rows = index.getRows( i );
+         if ( rows == null ) {
+            buffer.append( "*\"," );
+            continue;
+         }
+         int last = 0;
+         gaps.setLength( 0 );
+         for ( int row : rows ) {
+            if ( gaps.length() > bitmapLength ) break;
+            gaps.append( Integer.toString( row - last, 36 ) ).append( ',' );
+            last = row;
+         }
+         if ( gaps.length() > bitmapLength ) {
+            Arrays.fill( bitmap, (char) 0 );
+            for ( int row : rows ) bitmap[ row / 6 ] |= 1 << ( row % 6 );
+            buffer.append( '~' );
+            for ( char bits : bitmap ) buffer.append( BITMAP_DIGITS.charAt( bits ) );
+            buffer.append( "\"," );
+         } else
+            buffer.append( backspace( gaps ) ).append( "\"," );
+      }
+      if ( index.size() > 0 ) backspace( buffer );
+      try ( OutputStreamWriter writer = openStream( path ) ) {
+         writeData( writer, "od.reader.jsonp_data_trigrams(20261018," + textCat, buffer.append( '}' ), ")" );
+      }
+   }
+
+   private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial( () -> { // Categories are exported concurrently
+      Encoder encoder = new Encoder();
+      encoder.SetEndMarkerMode( true );
+      encoder.SetNumFastBytes( 256 );
+      //encoder.SetDictionarySize( 28 ); // Default 23 = 8M. Max = 28 = 256M.
+      return encoder;
+   } );
 
    private byte[] lzma ( CharSequence txt ) throws IOException {
       byte[] data = txt.toString().getBytes( UTF_8 );
       ByteArrayOutputStream buffer = new ByteArrayOutputStream( data.length / 2 ); // Only a few poisons data has a lower compression rate
-      Encoder encoder = encoders.get( Thread.currentThread() );
-      if ( encoder == null ) {
-         encoder = new Encoder();
-         encoder.SetEndMarkerMode( true );
-         encoder.SetNumFastBytes( 256 );
-         //encoder.SetDictionarySize( 28 ); // Default 23 = 8M. Max = 28 = 256M.
-         encoders.put( Thread.currentThread(), encoder );
-      }
+      Encoder encoder = encoders.get();
       try ( ByteArrayInputStream inStream = new ByteArrayInputStream( data ) ) {
          int fileSize = data.length;
          encoder.WriteCoderProperties( buffer );
@@ -0,0 +1,243 @@
+package db4e.exporter;
+
+import db4e.data.Category;
+import db4e.data.Entry;
+import db4e.data.ListingTable;
+import static db4e.exporter.Exporter.stop;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+
+/**
+ * Export raw data as a columnar binary file, to be memory mapped by ColumnarReader.
+ *
+ * Each category is encoded into a block by its own thread, then appended to the file; a footer indexes the blocks.
+ * Text fields are dictionary encoded, run length encoded when it is smaller.  Numeric fields are floats,
+ * with original text in a "Text" suffixed column.  Content is deflated in blocks of rows.
+ * See ColumnarReader for the layout.
+ */
+public class ExporterRawColumnar extends Exporter {
+
+   static final int MAGIC = 0x44344543; // "D4EC"
+   static final int VERSION = 1;
+   static final byte TYPE_STRING = 0, TYPE_DICT = 1, TYPE_FLOAT = 2, TYPE_CONTENT = 3;
+   static final byte ENC_PLAIN = 0, ENC_RLE = 1;
+   static final int CONTENT_BLOCK_ROWS = 64;
+
+   private FileChannel channel;
+   private List<Category> order;
+   private final Map<Category, long[]> blocks = new HashMap<>(); // Category to [ offset, length, rows ]
+   private long position;
+
+   @Override protected void _preExport ( List<Category> categories ) throws IOException {
+      log.log( Level.CONFIG, "Export raw columnar: {0}", target );
+      target.getParentFile().mkdirs();
+      synchronized ( this ) {
+         channel = FileChannel.open( target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+         blocks.clear();
+         order = categories;
+         final ByteBuffer header = ByteBuffer.allocate( 16 ).putInt( MAGIC ).putInt( VERSION ).putLong( 0 ); // Footer offset is set on post export
+         header.flip();
+         position = writeAt( header, 0 );
+      }
+      state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
+   }
+
+   @Override protected void _export ( Category category ) throws IOException, InterruptedException {
+      if ( stop.get() ) throw new InterruptedException();
+      log.log( Level.FINE, "Building {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
+
+      final ListingTable table = category.listing != null && category.listing.size() == category.entries.size()
+            ? category.listing : ListingTable.build( category, null );
+      final List<Entry> entries = new ArrayList<>( table.size() );
+      final int[] rows = new int[ table.size() ]; // Listing rows to export
+      for ( int row = 0 ; row < table.size() ; row++ ) {
+         final Entry entry = category.entries.get( row );
+         if ( ! entry.hasContent() ) continue;
+         rows[ entries.size() ] = row;
+         entries.add( entry );
+      }
+      final int size = entries.size();
+
+      final List<String> names = new ArrayList<>();
+      final List<Byte> types = new ArrayList<>();
+      final List<byte[]> data = new ArrayList<>();
+      final String[] texts = new String[ size ];
+      for ( int i = 0 ; i < size ; i++ ) texts[ i ] = entries.get( i ).getUrl();
+      addColumn( names, types, data, "Url", TYPE_STRING, stringColumn( texts ) );
+      for ( int i = 0 ; i < size ; i++ ) texts[ i ] = table.getName( rows[ i ] );
+      addColumn( names, types, data, "Name", TYPE_STRING, stringColumn( texts ) );
+      for ( int col = 0 ; col < table.getColumnCount() ; col++ ) {
+         final String field = table.getColumn( col );
+         if ( table.isNumeric( col ) ) {
+            final ByteBuffer numbers = ByteBuffer.allocate( size * 4 );
+            for ( int i = 0 ; i < size ; i++ ) numbers.putFloat( table.getNumber( col, rows[ i ] ) );
+            addColumn( names, types, data, field, TYPE_FLOAT, numbers.array() );
+            addColumn( names, types, data, field + "Text", TYPE_DICT, dictColumn( table, col, rows, size ) );
+         } else
+            addColumn( names, types, data, field, TYPE_DICT, dictColumn( table, col, rows, size ) );
+      }
+      if ( stop.get() ) throw new InterruptedException();
+      addColumn( names, types, data, "Content", TYPE_CONTENT, contentColumn( entries ) );
+
+      // Block: column count, column headers (name, type, data length), column data.
+      final ByteArrayOutputStream block = new ByteArrayOutputStream( data.stream().mapToInt( e -> e.length ).sum() + 1024 );
+      try ( DataOutputStream out = new DataOutputStream( block ) ) {
+         out.writeInt( size );
+         out.writeInt( names.size() );
+         for ( int i = 0 ; i < names.size() ; i++ ) {
+            out.writeUTF( names.get( i ) );
+            out.writeByte( types.get( i ) );
+            out.writeInt( data.get( i ).length );
+         }
+         for ( byte[] column : data ) out.write( column );
+      }
+      if ( stop.get() ) throw new InterruptedException();
+
+      synchronized ( this ) {
+         final long offset = position;
+         position += writeAt( ByteBuffer.wrap( block.toByteArray() ), offset );
+         blocks.put( category, new long[]{ offset, position - offset, size } );
+      }
+      state.add( category.entries.size() );
+   }
+
+   @Override protected synchronized void _postExport ( List<Category> categories ) throws IOException {
+      checkStop( "Writing index" );
+      final ByteArrayOutputStream footer = new ByteArrayOutputStream();
+      try ( DataOutputStream out = new DataOutputStream( footer ) ) {
+         final List<Category> exported = new ArrayList<>( order );
+         exported.retainAll( blocks.keySet() );
+         out.writeInt( exported.size() );
+         for ( Category category : exported ) {
+            final long[] block = blocks.get( category );
+            out.writeUTF( category.id );
+            out.writeUTF( category.name );
+            out.writeInt( (int) block[2] );
+            out.writeLong( block[0] );
+            out.writeLong( block[1] );
+         }
+      }
+      final long footerOffset = position;
+      position += writeAt( ByteBuffer.wrap( footer.toByteArray() ), footerOffset );
+      final ByteBuffer pointer = ByteBuffer.allocate( 8 ).putLong( footerOffset );
+      pointer.flip();
+      writeAt( pointer, 8 );
+   }
+
+   @Override public synchronized void close () throws IOException {
+      if ( channel == null ) return;
+      channel.close();
+      channel = null;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Encoding
+   /////////////////////////////////////////////////////////////////////////////
+
+   private int writeAt ( ByteBuffer buffer, long offset ) throws IOException {
+      final int size = buffer.remaining();
+      while ( buffer.hasRemaining() ) offset += channel.write( buffer, offset );
+      return size;
+   }
+
+   private static void addColumn ( List<String> names, List<Byte> types, List<byte[]> data, String name, byte type, byte[] column ) {
+      names.add( name );
+      types.add( type );
+      data.add( column );
+   }
+
+   /** String list: int count, int[count+1] byte offsets, UTF-8 bytes. */
+   private static void writeStrings ( DataOutputStream out, String[] texts, int count ) throws IOException {
+      final byte[][] bytes = new byte[ count ][];
+      out.writeInt( count );
+      int offset = 0;
+      out.writeInt( 0 );
+      for ( int i = 0 ; i < count ; i++ ) {
+         bytes[ i ] = texts[ i ].getBytes( UTF_8 );
+         out.writeInt( offset += bytes[ i ].length );
+      }
+      for ( byte[] e : bytes ) out.write( e );
+   }
+
+   private static byte[] stringColumn ( String[] texts ) throws IOException {
+      final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try ( DataOutputStream out = new DataOutputStream( buf ) ) {
+         writeStrings( out, texts, texts.length );
+      }
+      return buf.toByteArray();
+   }
+
+   /** Dictionary: string list, then codes as plain ints or as runs of [ end row, code ]. */
+   private static byte[] dictColumn ( ListingTable table, int col, int[] rows, int size ) throws IOException {
+      final String[] dictionary = new String[ table.getDictionarySize( col ) ];
+      for ( int code = 0 ; code < dictionary.length ; code++ ) dictionary[ code ] = table.getDictionaryText( col, code );
+      final int[] codes = new int[ size ];
+      int runs = 0;
+      for ( int i = 0 ; i < size ; i++ ) {
+         codes[ i ] = table.getCode( col, rows[ i ] );
+         if ( i == 0 || codes[ i ] != codes[ i - 1 ] ) ++runs;
+      }
+      final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try ( DataOutputStream out = new DataOutputStream( buf ) ) {
+         writeStrings( out, dictionary, dictionary.length );
+         if ( runs * 2 < size ) {
+            out.writeByte( ENC_RLE );
+            out.writeInt( runs );
+            for ( int i = 1 ; i <= size ; i++ ) // Run ends
+               if ( i == size || codes[ i ] != codes[ i - 1 ] ) out.writeInt( i );
+            for ( int i = 0 ; i < size ; i++ ) // Run codes
+               if ( i == 0 || codes[ i ] != codes[ i - 1 ] ) out.writeInt( codes[ i ] );
+         } else {
+            out.writeByte( ENC_PLAIN );
+            for ( int code : codes ) out.writeInt( code );
+         }
+      }
+      return buf.toByteArray();
+   }
+
+   /** Content: int block rows, int block count, int[count+1] offsets, deflated string lists. */
+   private static byte[] contentColumn ( List<Entry> entries ) throws IOException {
+      final int size = entries.size(), blockCount = ( size + CONTENT_BLOCK_ROWS - 1 ) / CONTENT_BLOCK_ROWS;
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream( size * 1024 );
+      final int[] offsets = new int[ blockCount + 1 ];
+      final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+      final byte[] chunk = new byte[ 64 * 1024 ];
+      final String[] texts = new String[ CONTENT_BLOCK_ROWS ];
+      try {
+         for ( int b = 0 ; b < blockCount ; b++ ) {
+            final int start = b * CONTENT_BLOCK_ROWS, count = Math.min( CONTENT_BLOCK_ROWS, size - start );
+            for ( int i = 0 ; i < count ; i++ ) texts[ i ] = entries.get( start + i ).getContent();
+            final ByteArrayOutputStream raw = new ByteArrayOutputStream( 64 * 1024 );
+            try ( DataOutputStream out = new DataOutputStream( raw ) ) {
+               writeStrings( out, texts, count );
+            }
+            deflater.reset();
+            deflater.setInput( raw.toByteArray() );
+            deflater.finish();
+            while ( ! deflater.finished() ) compressed.write( chunk, 0, deflater.deflate( chunk ) );
+            offsets[ b + 1 ] = compressed.size();
+         }
+      } finally {
+         deflater.end();
+      }
+      final ByteArrayOutputStream buf = new ByteArrayOutputStream( compressed.size() + offsets.length * 4 + 8 );
+      try ( DataOutputStream out = new DataOutputStream( buf ) ) {
+         out.writeInt( CONTENT_BLOCK_ROWS );
+         out.writeInt( blockCount );
+         for ( int offset : offsets ) out.writeInt( offset );
+         compressed.writeTo( out );
+      }
+      return buf.toByteArray();
+   }
+}
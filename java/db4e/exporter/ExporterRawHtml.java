@@ -6,7 +6,9 @@ import db4e.data.Entry;
 import static db4e.exporter.Exporter.stop;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -14,27 +16,52 @@ import sheepy.util.ResourceUtils;
 import sheepy.util.Utils;
 
 /**
- *\ Export raw data as HTML
+ *\ Export raw data as HTML.
+ *
+ * If target is a .zip file, all pages are packed into it with the same layout as a folder export,
+ * i.e. an index page and a _files folder.  Entries are compressed concurrently and appended to the zip.
  */
 public class ExporterRawHtml extends Exporter {
 
-   private String root;
+   private static final int MAX_IN_FLIGHT = 64; // Max entry files being written at the same time
+
+   private String root; // Folder of category and entry pages, ends with "/".  Path in zip if packed.
+   private String index; // Path of index page.
+   private boolean pack;
+   private Template entryTemplate;
+   private AsyncFileWriter files;
+   private ZipWriter zip;
+   private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial( () -> new StringBuilder( 64 * 1024 ) );
 
    @Override public synchronized void setState ( File target, Consumer<String> stopChecker, ProgressState state ) {
       super.setState( target, stopChecker, state );
-      root = target.toString().replaceAll( "\\.html$", "" ) + "_files/";
+      pack = target.getName().toLowerCase().endsWith( ".zip" );
+      if ( pack ) {
+         final String name = target.getName().replaceAll( "(?i)\\.zip$", "" );
+         index = name + ".html";
+         root = name + "_files/";
+      } else {
+         index = target.toString();
+         root = target.toString().replaceAll( "\\.html$", "" ) + "_files/";
+      }
    }
 
    @Override protected void _preExport ( List<Category> categories ) throws IOException {
       log.log( Level.CONFIG, "Export raw HTML: {0}", target );
-      new File( root ).mkdirs();
+      if ( pack ) {
+         target.getParentFile().mkdirs();
+         zip = new ZipWriter( target.toPath() );
+      } else
+         new File( root ).mkdirs();
       checkStop( "Writing catlog" );
       writeCatalog( categories );
+      entryTemplate = Template.compile( ResourceUtils.getText( "res/export_entry.html" ), "[title]", "[body]" );
+      if ( ! pack ) files = new AsyncFileWriter( MAX_IN_FLIGHT );
       state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
    }
 
    private void writeCatalog ( List<Category> categories ) throws IOException {
-      final String template = ResourceUtils.getText( "res/export_list.html" );
+      final Template template = Template.compile( ResourceUtils.getText( "res/export_list.html" ), "[title]", "[head]", "[body]" );
 
       final StringBuilder index_body = new StringBuilder();
       final String folder = new File( root ).getName() + "/";
@@ -59,44 +86,61 @@ public class ExporterRawHtml extends Exporter {
             body.append( "</tr>" );
          }
 
-         String output = template;
-         output = output.replace( "[title]", Utils.escapeHTML( category.getName() ) );
-         output = output.replace( "[head]", head );
-         output = output.replace( "[body]", body );
-         try ( Writer writer = openStream( root + category.id + ".html" ) ) {
-            writer.write( output );
+         try ( Writer writer = openPage( root + category.id + ".html" ) ) {
+            writer.write( template.apply( Utils.escapeHTML( category.getName() ), head, body ) );
          }
       }
 
       // Output index
-      String output = template;
-      output = output.replace( "[title]", "4e Compendium Data" );
-      output = output.replace( "[head]", "<th>Category</th><th>Count</th>" );
-      output = output.replace( "[body]", index_body );
-      try ( Writer writer = openStream( target.toString() ) ) {
-         writer.write( output );
+      try ( Writer writer = openPage( index ) ) {
+         writer.write( template.apply( "4e Compendium Data", "<th>Category</th><th>Count</th>", index_body ) );
       }
    }
 
+   /** Open a page for write, either in zip or in file system. */
+   private Writer openPage ( String path ) throws IOException {
+      return pack ? new OutputStreamWriter( zip.open( path ), UTF_8 ) : openStream( path );
+   }
+
    @Override protected void _export ( Category category ) throws IOException, InterruptedException {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Writing {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
 
-      String template = ResourceUtils.getText( "res/export_entry.html" );
-      String cat_id = category.id.toLowerCase();
-      new File( root + cat_id ).mkdirs();
+      final String cat_id = category.id.toLowerCase();
+      final File folder = new File( root + cat_id );
+      if ( ! pack ) folder.mkdirs();
+      final StringBuilder buffer = buffers.get();
 
       for ( Entry entry : category.entries ) {
          if ( ! entry.hasContent() ) continue;
 
          if ( stop.get() ) throw new InterruptedException();
-         String buffer = template;
-         buffer = buffer.replace( "[title]", Utils.escapeHTML( entry.getName() ) );
-         buffer = buffer.replace( "[body]", entry.getContent() );
-         try ( Writer writer = openStream( root + cat_id + "/" + entry.getId().replace( ".aspx?id=", "-" ) + ".html" ) ) {
-            writer.write( buffer );
-         }
+         buffer.setLength( 0 );
+         entryTemplate.apply( buffer, Utils.escapeHTML( entry.getName() ), entry.getContent() );
+         final String file = entry.getId().replace( ".aspx?id=", "-" ) + ".html";
+         if ( pack )
+            try ( Writer writer = openPage( root + cat_id + "/" + file ) ) {
+               writer.append( buffer );
+            }
+         else
+            files.write( new File( folder, file ).toPath(), buffer );
          state.addOne();
       }
+      if ( buffer.capacity() > 1024 * 1024 ) buffers.remove(); // Don't keep a huge buffer
+   }
+
+   @Override protected void _postExport ( List<Category> categories ) throws IOException {
+      checkStop( "Writing files" );
+      if ( files != null ) files.await();
+   }
+
+   @Override public synchronized void close () throws IOException {
+      try {
+         if ( files != null ) files.close();
+      } finally {
+         files = null;
+         if ( zip != null ) zip.close();
+         zip = null;
+      }
    }
-}
\ No newline at end of file
+}
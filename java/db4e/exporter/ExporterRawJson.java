@@ -15,13 +15,15 @@ import java.util.logging.Level;
  */
 public class ExporterRawJson extends Exporter {
 
-   private Writer writer;
+   private OrderedChannelWriter file;
+   private List<Category> order; // Category order in file.  Header is part 0 and footer is the last part.
 
    @Override protected void _preExport ( List<Category> categories ) throws IOException {
       log.log( Level.CONFIG, "Export raw Json: {0}", target );
       target.getParentFile().mkdirs();
-      synchronized ( this ) {
-         writer = openStream( target.toPath() );
+      order = categories;
+      file = new OrderedChannelWriter( target.toPath(), categories.size() + 2 );
+      try ( Writer writer = file.open( 0 ) ) {
          writer.write( "{" );
       }
       state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
@@ -31,34 +33,43 @@ public class ExporterRawJson extends Exporter {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Building {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
 
-      StringBuilder buffer = new StringBuilder( 3 * 1024 * 1024 );
-      str( buffer, category.id ).append( ":[ " ); // extra space to allow backspace in empty category
-
-
-      for ( Entry entry : category.entries ) {
-         if ( ! entry.hasContent() ) continue;
-         buffer.append( '{' );
-         prop( buffer, "Url", entry.getUrl() ).append( ',' );
-         prop( buffer, "Name", entry.getName() ).append( ',' );
-         for ( int i = category.fields.length - 1 ; i >= 0 ; i-- )
-            prop( buffer, category.fields[ i ], entry.getSimpleField( i ) ).append( ',' );
-         prop( buffer, "Content", entry.getContent() );
-         buffer.append( "}," );
-      }
-      backspace( buffer ).append( "]," );
-
-      synchronized ( this ) {
-         writer.write( buffer.toString() );
+      final StringBuilder buffer = new StringBuilder( 64 * 1024 );
+      try ( Writer writer = file.open( order.indexOf( category ) + 1 ) ) {
+         str( buffer, category.id ).append( ":[" );
+         boolean first = true;
+         for ( Entry entry : category.entries ) {
+            if ( ! entry.hasContent() ) continue;
+            buffer.append( first ? " {" : ",{" );
+            first = false;
+            prop( buffer, "Url", entry.getUrl() ).append( ',' );
+            prop( buffer, "Name", entry.getName() ).append( ',' );
+            for ( int i = category.fields.length - 1 ; i >= 0 ; i-- )
+               prop( buffer, category.fields[ i ], entry.getSimpleField( i ) ).append( ',' );
+            prop( buffer, "Content", entry.getContent() );
+            buffer.append( '}' );
+            writer.append( buffer );
+            buffer.setLength( 0 );
+            if ( stop.get() ) throw new InterruptedException();
+         }
+         writer.append( buffer.append( "]," ) );
       }
       state.add( category.entries.size() );
    }
 
+   @Override public void abort () {
+      final OrderedChannelWriter f = file;
+      if ( f != null ) f.abort();
+   }
+
    @Override public synchronized void close() throws IOException {
-      if ( writer == null ) return;
+      if ( file == null ) return;
       // Need to add something to close the last comma.
-      writer.write( "\"__date\":\"" + ZonedDateTime.now().format( DateTimeFormatter.ISO_INSTANT ) + "\"}" );
-      writer.close();
-      writer = null;
+      try ( Writer writer = file.open( order.size() + 1 ) ) {
+         writer.write( "\"__date\":\"" + ZonedDateTime.now().format( DateTimeFormatter.ISO_INSTANT ) + "\"}" );
+      } finally {
+         file.close();
+         file = null;
+      }
    }
 
 
@@ -18,7 +18,8 @@ import javafx.scene.control.ButtonType;
  */
 public class ExporterRawSql extends Exporter {
 
-   private Writer writer;
+   private OrderedChannelWriter file;
+   private List<Category> order; // Category order in file.  Header is part 0.
 
    private static final ButtonType MYSQL = new ButtonType( "MySQL" );
    private static final ButtonType MSSQL = new ButtonType( "MS SQL" );
@@ -56,8 +57,9 @@ public class ExporterRawSql extends Exporter {
    @Override protected void _preExport ( List<Category> categories ) throws IOException, InterruptedException {
       log.log( Level.CONFIG, "Export raw {1}Sql{2}: {0}", new Object[]{ target, id_quote_start, id_quote_end } );
       target.getParentFile().mkdirs();
-      synchronized ( this ) {
-         writer = openStream( target.toPath() );
+      order = categories;
+      file = new OrderedChannelWriter( target.toPath(), categories.size() + 1 );
+      try ( Writer writer = file.open( 0 ) ) {
          if ( id_quote_start == '`' || id_quote_start == '"' )
             writer.write( "SET NAMES 'UTF8';\n" );
       }
@@ -78,43 +80,49 @@ public class ExporterRawSql extends Exporter {
                maxLen[i+2] = entry.getSimpleField( i ).length();
       }
 
-      StringBuilder buffer = new StringBuilder( 3 * 1024 * 1024 );
-      id( buffer.append( "\nDROP TABLE IF EXISTS " ), category.id ).append( ";\n" );
-      id( buffer.append( "CREATE TABLE " ), category.id ).append( "(\n  " );
-      id( buffer, "Url" ).append( varchar ).append( '(' ).append( maxLen[0] ).append( ") NOT NULL PRIMARY KEY,\n  " );
-      id( buffer, "Name" ).append( varchar ).append( '(' ).append( maxLen[1] ).append( ") NOT NULL,\n  " );
-      for ( int i = 0 ; i <= maxField ; i++ )
-         id( buffer, category.fields[i] ).append( varchar ).append( '(' ).append( maxLen[i+2] ).append( ") NOT NULL,\n  " );
-      id( buffer, "Content" ).append( text ).append( " NOT NULL \n   " );
-      buffer.append( ") " );
-
-      int rowCount = 0;
-      for ( Entry entry : category.entries ) {
-         if ( ! entry.hasContent() ) continue;
-         if ( rowCount++ % 20 == 0 )
-            id( backspace( buffer ).append( ";\nINSERT INTO "), category.id ).append( " VALUES " );
-         buffer.append( "\n(" );
-         txt( buffer, entry.getUrl() ).append( ',' );
-         txt( buffer, entry.getName() ).append( ',' );
-         for ( String field : entry.getSimpleFields() )
-            txt( buffer, field ).append( ',' );
-         txt( buffer, entry.getContent() );
-         buffer.append( ")," );
-      }
+      final StringBuilder buffer = new StringBuilder( 64 * 1024 );
+      try ( Writer writer = file.open( order.indexOf( category ) + 1 ) ) {
+         id( buffer.append( "\nDROP TABLE IF EXISTS " ), category.id ).append( ";\n" );
+         id( buffer.append( "CREATE TABLE " ), category.id ).append( "(\n  " );
+         id( buffer, "Url" ).append( varchar ).append( '(' ).append( maxLen[0] ).append( ") NOT NULL PRIMARY KEY,\n  " );
+         id( buffer, "Name" ).append( varchar ).append( '(' ).append( maxLen[1] ).append( ") NOT NULL,\n  " );
+         for ( int i = 0 ; i <= maxField ; i++ )
+            id( buffer, category.fields[i] ).append( varchar ).append( '(' ).append( maxLen[i+2] ).append( ") NOT NULL,\n  " );
+         id( buffer, "Content" ).append( text ).append( " NOT NULL \n   " );
+         buffer.append( ")" );
 
-      if ( ! buffer.toString().endsWith( " VALUES " ) ) { // If any entry was written
-         backspace( buffer ).append( ";\n" );
-         synchronized ( this ) {
-            writer.write( buffer.toString() );
+         int rowCount = 0;
+         for ( Entry entry : category.entries ) {
+            if ( ! entry.hasContent() ) continue;
+            if ( rowCount++ % 20 == 0 )
+               id( buffer.append( ";\nINSERT INTO "), category.id ).append( " VALUES " );
+            else
+               buffer.append( ',' );
+            buffer.append( "\n(" );
+            txt( buffer, entry.getUrl() ).append( ',' );
+            txt( buffer, entry.getName() ).append( ',' );
+            for ( String field : entry.getSimpleFields() )
+               txt( buffer, field ).append( ',' );
+            txt( buffer, entry.getContent() );
+            buffer.append( ")" );
+            writer.append( buffer );
+            buffer.setLength( 0 );
+            if ( stop.get() ) throw new InterruptedException();
          }
+         writer.append( buffer.append( ";\n" ) );
       }
       state.add( category.entries.size() );
    }
 
+   @Override public void abort () {
+      final OrderedChannelWriter f = file;
+      if ( f != null ) f.abort();
+   }
+
    @Override public synchronized void close() throws IOException {
-      if ( writer == null ) return;
-      writer.close();
-      writer = null;
+      if ( file == null ) return;
+      file.close();
+      file = null;
    }
 
    private StringBuilder id ( StringBuilder buffer, String id ) {
@@ -0,0 +1,160 @@
+package db4e.exporter;
+
+import db4e.converter.Convert;
+import db4e.data.Category;
+import db4e.data.Entry;
+import db4e.data.ListingTable;
+import db4e.data.TokenIndex;
+import static db4e.exporter.Exporter.stop;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import org.tmatesoft.sqljet.core.SqlJetException;
+import org.tmatesoft.sqljet.core.SqlJetTransactionMode;
+import org.tmatesoft.sqljet.core.table.ISqlJetTable;
+import org.tmatesoft.sqljet.core.table.SqlJetDb;
+
+/**
+ * Export raw data as a ready-to-query SQLite database.
+ *
+ * Each category is a table of Url, Name, fields, and Content.  Numeric fields such as Level and Cost are REAL,
+ * with original text in a "Text" suffixed column.  Name, numeric fields, and low cardinality fields are indexed.
+ * Optional token table maps each lower case word to the rowid of entries containing it.
+ *
+ * Rows are prepared concurrently, but SqlJet is single threaded, so each category is inserted in one transaction under a lock.
+ */
+public class ExporterRawSqlite extends Exporter {
+
+   private final boolean tokens;
+   private SqlJetDb db;
+   private List<Category> order; // Category order, saved to category table
+
+   public ExporterRawSqlite () {
+      this( true );
+   }
+
+   /** @param tokens Whether to build the token table. */
+   public ExporterRawSqlite ( boolean tokens ) {
+      this.tokens = tokens;
+   }
+
+   @Override protected void _preExport ( List<Category> categories ) throws IOException {
+      log.log( Level.CONFIG, "Export raw SQLite: {0}", target );
+      target.getParentFile().mkdirs();
+      if ( target.exists() && ! target.delete() )
+         throw new IOException( "Cannot overwrite " + target );
+      try {
+         synchronized ( this ) {
+            db = SqlJetDb.open( target, true );
+         }
+         db.getOptions().setAutovacuum( false );
+         db.beginTransaction( SqlJetTransactionMode.WRITE );
+         try {
+            db.createTable( "CREATE TABLE 'category' ('id' TEXT PRIMARY KEY NOT NULL, 'name' TEXT NOT NULL, 'count' INTEGER NOT NULL, 'fields' TEXT NOT NULL, 'order' INTEGER NOT NULL)" );
+            if ( tokens ) {
+               db.createTable( "CREATE TABLE 'token' ('token' TEXT NOT NULL, 'category' TEXT NOT NULL, 'row' INTEGER NOT NULL)" );
+               db.createIndex( "CREATE INDEX token_index ON token(token)" );
+            }
+            db.commit();
+         } finally {
+            db.rollback();
+         }
+      } catch ( SqlJetException ex ) {
+         throw new IOException( ex );
+      }
+      order = categories;
+      state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
+   }
+
+   @Override protected void _export ( Category category ) throws IOException, InterruptedException {
+      if ( stop.get() ) throw new InterruptedException();
+      log.log( Level.FINE, "Building {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
+
+      // Prepare rows outside of database lock
+      final ListingTable table = category.listing != null && category.listing.size() == category.entries.size()
+            ? category.listing : ListingTable.build( category, null );
+      final int colCount = table.getColumnCount(), size = table.size();
+      final List<String> columns = new ArrayList<>( colCount * 2 + 3 );
+      final List<String> indices = new ArrayList<>();
+      columns.add( "'Url' TEXT PRIMARY KEY NOT NULL" );
+      columns.add( "'Name' TEXT NOT NULL" );
+      indices.add( "Name" );
+      for ( int col = 0 ; col < colCount ; col++ ) {
+         final String field = table.getColumn( col );
+         if ( table.isNumeric( col ) ) {
+            columns.add( "'" + field + "' REAL" );
+            columns.add( "'" + field + "Text' TEXT NOT NULL" );
+            indices.add( field );
+         } else {
+            columns.add( "'" + field + "' TEXT NOT NULL" );
+            final int distinct = table.getDictionarySize( col );
+            if ( distinct > 1 && distinct * 4 <= size ) indices.add( field ); // Low cardinality, e.g. SourceBook and Rarity
+         }
+      }
+      columns.add( "'Content' TEXT NOT NULL" );
+
+      final List<Object[]> rows = new ArrayList<>( size );
+      final Convert converter = tokens ? Convert.getConverter( category ) : null;
+      final TokenIndex.Builder tokenBuilder = tokens ? new TokenIndex.Builder() : null;
+      for ( int row = 0 ; row < size ; row++ ) {
+         final Entry entry = category.entries.get( row );
+         if ( ! entry.hasContent() ) continue;
+         final Object[] values = new Object[ columns.size() ];
+         int i = 0;
+         values[ i++ ] = entry.getUrl();
+         values[ i++ ] = table.getName( row );
+         for ( int col = 0 ; col < colCount ; col++ ) {
+            if ( table.isNumeric( col ) ) {
+               final float number = table.getNumber( col, row );
+               values[ i++ ] = number != number ? null : number == (long) number ? (Object) (long) number : (Object) (double) number;
+            }
+            values[ i++ ] = table.getText( col, row );
+         }
+         values[ i ] = entry.getContent();
+         rows.add( values );
+         if ( tokens ) tokenBuilder.add( converter.textData( entry.getContent() ) );
+      }
+      final TokenIndex tokenIndex = tokens ? tokenBuilder.build() : null;
+      if ( stop.get() ) throw new InterruptedException();
+
+      synchronized ( db ) { try {
+         db.beginTransaction( SqlJetTransactionMode.WRITE );
+         try {
+            db.createTable( "CREATE TABLE '" + category.id + "' (" + String.join( ", ", columns ) + ")" );
+            for ( String field : indices )
+               db.createIndex( "CREATE INDEX '" + category.id + "_" + field + "_index' ON '" + category.id + "'('" + field + "')" );
+            final ISqlJetTable tbl = db.getTable( category.id );
+            for ( int row = 0 ; row < rows.size() ; row++ )
+               tbl.insertWithRowId( row + 1, rows.get( row ) );
+            if ( tokens ) {
+               final ISqlJetTable tblToken = db.getTable( "token" );
+               for ( int i = 0, len = tokenIndex.size() ; i < len ; i++ ) {
+                  final String token = tokenIndex.getToken( i );
+                  for ( int row : tokenIndex.getRows( i ) )
+                     tblToken.insert( token, category.id, row + 1 );
+               }
+            }
+            db.getTable( "category" ).insert( category.id, category.name, rows.size(), String.join( ",", category.fields ), order.indexOf( category ) );
+            if ( stop.get() ) throw new InterruptedException();
+            db.commit();
+         } finally {
+            db.rollback();
+         }
+      } catch ( SqlJetException ex ) {
+         throw new IOException( ex );
+      } }
+      state.add( category.entries.size() );
+   }
+
+   @Override public synchronized void close () throws IOException {
+      if ( db == null ) return;
+      try {
+         db.close();
+      } catch ( SqlJetException ex ) {
+         throw new IOException( ex );
+      } finally {
+         db = null;
+      }
+   }
+}
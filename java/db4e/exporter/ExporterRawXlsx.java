@@ -4,43 +4,48 @@ import db4e.data.Category;
 import db4e.data.Entry;
 import static db4e.exporter.Exporter.stop;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import sheepy.util.ResourceUtils;
 
 /**
- *\ Export raw data as XLSX
+ * Export raw data as XLSX.
+ *
+ * Worksheets are streamed and compressed by their own category thread, then appended to the zip as a whole.
+ * Shared strings are interned concurrently, and streamed to the zip after all worksheets are done.
  */
 public class ExporterRawXlsx extends Exporter {
 
-   private FileSystem fs; // Zip file system
-   private static final Map<String,Integer> SharedString = new HashMap<>( 78200, 1f );
-   private static final AtomicInteger shareCount = new AtomicInteger();
+   private ZipWriter zip;
+   private SharedStrings shared;
 
    @Override protected void _preExport ( List<Category> categories ) throws IOException {
       log.log( Level.CONFIG, "Export raw XLSX: {0}", target );
       StringBuilder buffer = new StringBuilder( 65535 );
-      synchronized ( SharedString ) {
-         SharedString.clear();
-         shareCount.set( 0 );
-      }
+      shared = new SharedStrings();
 
       target.getParentFile().mkdirs();
-      try ( InputStream reader = ResourceUtils.getStream( "res/xlsx.zip" ) ) {
-         Files.copy( reader, target.toPath(), StandardCopyOption.REPLACE_EXISTING );
-      }
       synchronized ( this ) {
-         fs = FileSystems.newFileSystem( URI.create( "jar:" + target.toURI() ) , new HashMap<>() );
+         zip = new ZipWriter( target.toPath() );
+      }
+      try ( ZipInputStream template = new ZipInputStream( ResourceUtils.getStream( "res/xlsx.zip" ) ) ) {
+         final byte[] copyBuffer = new byte[ 8192 ];
+         for ( ZipEntry entry ; ( entry = template.getNextEntry() ) != null ; ) {
+            if ( entry.isDirectory() ) continue;
+            try ( OutputStream out = zip.open( entry.getName() ) ) {
+               for ( int len ; ( len = template.read( copyBuffer ) ) > 0 ; ) out.write( copyBuffer, 0, len );
+            }
+         }
       }
 
       // Sheet list
@@ -52,9 +57,7 @@ public class ExporterRawXlsx extends Exporter {
       for ( Category category : categories )
          buffer.append( "<sheet name=\"" ).append( category.id ).append( "\" sheetId=\"" ).append( id++ ).append( "\" r:id=\"rId" ).append( category.id ).append( "\"/>" );
       buffer.append( "</sheets></workbook>" );
-      try ( Writer writer = openStream( fs.getPath( "xl/workbook.xml" ) ) ) {
-         writer.write( buffer.toString() );
-      }
+      zip.write( "xl/workbook.xml", buffer.toString().getBytes( UTF_8 ) );
 
       // Sheet file location
       buffer.setLength( 0 );
@@ -66,9 +69,7 @@ public class ExporterRawXlsx extends Exporter {
       for ( Category category : categories )
          buffer.append( "<Relationship Id=\"rId" ).append( category.id ).append( "\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/" ).append( category.id ).append( ".xml\"/>" );
       buffer.append( "</Relationships>" );
-      try ( Writer writer = openStream( fs.getPath( "xl/_rels/workbook.xml.rels" ) ) ) {
-         writer.write( buffer.toString() );
-      }
+      zip.write( "xl/_rels/workbook.xml.rels", buffer.toString().getBytes( UTF_8 ) );
 
       state.total = categories.stream().mapToInt( e -> e.entries.size() ).sum();
    }
@@ -77,37 +78,38 @@ public class ExporterRawXlsx extends Exporter {
       if ( stop.get() ) throw new InterruptedException();
       log.log( Level.FINE, "Writing {0} in thread {1}", new Object[]{ category.id, Thread.currentThread() });
 
-      StringBuilder buffer = new StringBuilder( 3 * 1024 * 1024 );
-      buffer.append( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
-         "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\" xmlns:mc=\"http://schemas.openxmlformats.org/markup-compatibility/2006\" xmlns:x14ac=\"http://schemas.microsoft.com/office/spreadsheetml/2009/9/ac\">"
-              // Freeze top row
-              + "<sheetViews><sheetView tabSelected=\"1\" workbookViewId=\"0\"><pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/><selection pane=\"bottomLeft\" activeCell=\"A2\" sqref=\"A2\"/></sheetView></sheetViews>"
-              + "<sheetData>" );
-
-      buffer.append( "<row>" );
-      cell( buffer, "Url" );
-      cell( buffer, "Name" );
-      for ( String field : category.fields )
-         cell( buffer, field );
-      cell( buffer, "Content" );
-      buffer.append( "</row>" );
-
-      for ( Entry entry : category.entries ) {
-         if ( ! entry.hasContent() ) continue;
+      final StringBuilder buffer = new StringBuilder( 64 * 1024 );
+      try ( Writer writer = new OutputStreamWriter( zip.open( "xl/worksheets/" + category.id + ".xml" ), UTF_8 ) ) {
+         buffer.append( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+            "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\" xmlns:mc=\"http://schemas.openxmlformats.org/markup-compatibility/2006\" xmlns:x14ac=\"http://schemas.microsoft.com/office/spreadsheetml/2009/9/ac\">"
+                 // Freeze top row
+                 + "<sheetViews><sheetView tabSelected=\"1\" workbookViewId=\"0\"><pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/><selection pane=\"bottomLeft\" activeCell=\"A2\" sqref=\"A2\"/></sheetView></sheetViews>"
+                 + "<sheetData>" );
+
          buffer.append( "<row>" );
-         cell( buffer, entry.getUrl() );
-         cell( buffer, entry.getName() );
-         for ( String field : entry.getSimpleFields() )
+         cell( buffer, "Url" );
+         cell( buffer, "Name" );
+         for ( String field : category.fields )
             cell( buffer, field );
-         longCell( buffer, entry.getContent() );
+         cell( buffer, "Content" );
          buffer.append( "</row>" );
-      }
-      buffer.append( "</sheetData></worksheet>" );
-
-      if ( stop.get() ) throw new InterruptedException();
 
-      try ( Writer writer = openStream( fs.getPath( "xl/worksheets/" + category.id + ".xml" ) ) ) {
-         writer.write( buffer.toString() );
+         for ( Entry entry : category.entries ) {
+            if ( ! entry.hasContent() ) continue;
+            buffer.append( "<row>" );
+            cell( buffer, entry.getUrl() );
+            cell( buffer, entry.getName() );
+            for ( String field : entry.getSimpleFields() )
+               cell( buffer, field );
+            longCell( buffer, entry.getContent() );
+            buffer.append( "</row>" );
+            if ( buffer.length() > 32 * 1024 ) {
+               writer.append( buffer );
+               buffer.setLength( 0 );
+               if ( stop.get() ) throw new InterruptedException();
+            }
+         }
+         writer.append( buffer.append( "</sheetData></worksheet>" ) );
       }
       state.add( category.entries.size() );
    }
@@ -115,22 +117,19 @@ public class ExporterRawXlsx extends Exporter {
    @Override protected void _postExport( List<Category> categories ) throws IOException {
       checkStop( "Building table" );
       state.set( -1 );
-      StringBuilder buffer = new StringBuilder( 46 * 1024 * 1024 );
-      synchronized ( SharedString ) {
-         int size = SharedString.size();
-         String[] list = new String[ size ];
-         for ( Map.Entry<String, Integer> e : SharedString.entrySet() )
-            list[ e.getValue() ] = e.getKey();
-
+      final String[] list = shared.toArray();
+      final StringBuilder buffer = new StringBuilder( 64 * 1024 );
+      try ( Writer writer = new OutputStreamWriter( zip.open( "xl/sharedStrings.xml" ), UTF_8 ) ) {
          buffer.append( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
-            "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"" ).append( shareCount.get() ).append( "\" uniqueCount=\"" ).append( size ).append( "\">" );
-         for ( String text : list )
+            "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"" ).append( shared.count.sum() ).append( "\" uniqueCount=\"" ).append( list.length ).append( "\">" );
+         for ( String text : list ) {
             buffer.append( "<si><t>" ).append( xml( text ) ).append( "</t></si>" );
-      }
-      buffer.append( "</sst>" );
-
-      try ( Writer writer = openStream( fs.getPath( "xl/sharedStrings.xml" ) ) ) {
-         writer.write( buffer.toString() );
+            if ( buffer.length() > 32 * 1024 ) {
+               writer.append( buffer );
+               buffer.setLength( 0 );
+            }
+         }
+         writer.append( buffer.append( "</sst>" ) );
       }
 
       checkStop( "Packing to xlsx" );
@@ -138,9 +137,34 @@ public class ExporterRawXlsx extends Exporter {
    }
 
    @Override public synchronized void close() throws IOException {
-      if ( fs == null ) return;
-      fs.close();
-      fs = null;
+      shared = null;
+      if ( zip == null ) return;
+      zip.close();
+      zip = null;
+   }
+
+   /**
+    * Shared string table of xlsx.  Lookup of existing text is lock-free, and new ids are dense.
+    * ConcurrentHashMap locks only the bin of a new text, so threads seldom wait on each other.
+    */
+   private static class SharedStrings {
+      private final Map<String, Integer> ids = new ConcurrentHashMap<>( 1 << 17 );
+      private final AtomicInteger next = new AtomicInteger();
+      final LongAdder count = new LongAdder(); // Number of shared cells
+
+      int id ( String text ) {
+         count.increment();
+         final Integer id = ids.get( text );
+         return id != null ? id : ids.computeIfAbsent( text, ( e ) -> next.getAndIncrement() );
+      }
+
+      /** @return Texts in id order.  Call after all ids are assigned. */
+      String[] toArray () {
+         final String[] list = new String[ next.get() ];
+         for ( Map.Entry<String, Integer> e : ids.entrySet() )
+            list[ e.getValue() ] = e.getKey();
+         return list;
+      }
    }
 
    /////////////////////////////////////////////////////////////////////////////
@@ -175,18 +199,8 @@ public class ExporterRawXlsx extends Exporter {
    }
 
    /** Add text to xlsx's shared string table and put its id into cell. */
-   private StringBuilder cellText ( StringBuilder buffer, String text ) throws InterruptedException {
-      shareCount.incrementAndGet();
-      Integer pos;
-      text.hashCode(); // Pre-calculate hash out of lock
-      synchronized ( SharedString ) {
-         pos = SharedString.get( text );
-         if ( pos == null ) {
-            pos = SharedString.size();
-            SharedString.put( text, pos );
-         }
-      }
-      return buffer.append( "<c t=\"s\"><v>").append( pos ).append( "</v></c>" );
+   private StringBuilder cellText ( StringBuilder buffer, String text ) {
+      return buffer.append( "<c t=\"s\"><v>").append( shared.id( text ) ).append( "</v></c>" );
    }
 
    private String xml ( String text ) {
@@ -0,0 +1,207 @@
+package db4e.exporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Write parts of a single file concurrently, in a fixed order.
+ *
+ * Each part (e.g. a category) is encoded as UTF-8 into pooled direct buffers by its own thread.
+ * Full buffers of the part currently at the head of the order are written to the file immediately;
+ * those of later parts wait in memory until their turn.  The pool is bounded: later parts block when
+ * it runs out, and one buffer is always left for the head part, so memory stays bounded and output is deterministic.
+ * If a part will never be written, e.g. its conversion failed, call abort to fail all waiting parts.
+ */
+class OrderedChannelWriter implements Closeable {
+
+   private static final int BUFFER_SIZE = 256 * 1024;
+   private static final int MAX_POOLED = 32;
+
+   private final FileChannel channel;
+   private final Object lock = new Object();
+   private final Queue<ByteBuffer> pool = new ArrayDeque<>( MAX_POOLED );
+   private final List<Queue<ByteBuffer>> pending = new ArrayList<>(); // Full buffers of each part
+   private final boolean[] done;
+   private int allocated = 0; // Pooled buffers created
+   private int head = 0; // Part being written
+   private boolean aborted = false;
+
+   /**
+    * Create or overwrite a file.
+    * @param path File to write to.
+    * @param partCount Number of parts.  Every part must be opened and closed exactly once.
+    */
+   OrderedChannelWriter ( Path path, int partCount ) throws IOException {
+      channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+      done = new boolean[ partCount ];
+      for ( int i = 0 ; i < partCount ; i++ ) pending.add( new ArrayDeque<>() );
+   }
+
+   /**
+    * Open a part for writing.  A part should be written by one thread.
+    * @param part Position of the part in the file.
+    * @return Writer of the part.  Close it to mark the part as complete.
+    */
+   Writer open ( int part ) {
+      return new Part( part );
+   }
+
+   /**
+    * Fail all waiting and future writes, because a part will never be written.
+    * Call this when a part fails before it is opened or closed.
+    */
+   void abort () {
+      synchronized ( lock ) {
+         aborted = true;
+         lock.notifyAll();
+      }
+   }
+
+   private void checkAborted () throws IOException {
+      if ( aborted ) throw new IOException( "Ordered file aborted" );
+   }
+
+   /** Take a buffer from pool.  Later parts wait while only one free buffer is left, which is kept for the head part. */
+   private ByteBuffer acquire ( int part ) throws IOException {
+      synchronized ( lock ) {
+         while ( true ) {
+            checkAborted();
+            final int free = pool.size() + MAX_POOLED - allocated;
+            if ( free > 1 || ( free > 0 && part == head ) ) {
+               final ByteBuffer buffer = pool.poll();
+               if ( buffer != null ) return buffer;
+               ++allocated;
+               return ByteBuffer.allocateDirect( BUFFER_SIZE );
+            }
+            try {
+               lock.wait();
+            } catch ( InterruptedException ex ) {
+               Thread.currentThread().interrupt();
+               throw new InterruptedIOException();
+            }
+         }
+      }
+   }
+
+   private void release ( ByteBuffer buffer ) {
+      buffer.clear();
+      pool.add( buffer );
+      lock.notifyAll();
+   }
+
+   /** Queue or write a filled buffer. */
+   private void submit ( int part, ByteBuffer buffer ) throws IOException {
+      buffer.flip();
+      synchronized ( lock ) {
+         checkAborted();
+         if ( part != head ) {
+            pending.get( part ).add( buffer );
+            return;
+         }
+         write( buffer );
+      }
+   }
+
+   /** Mark a part as done, and write the parts that are now at the head. */
+   private void finish ( int part ) throws IOException {
+      synchronized ( lock ) {
+         checkAborted();
+         done[ part ] = true;
+         while ( head < done.length ) {
+            for ( ByteBuffer buffer ; ( buffer = pending.get( head ).poll() ) != null ; ) write( buffer );
+            if ( ! done[ head ] ) break;
+            ++head;
+         }
+         lock.notifyAll(); // Head has changed
+      }
+   }
+
+   private void write ( ByteBuffer buffer ) throws IOException {
+      while ( buffer.hasRemaining() ) channel.write( buffer );
+      release( buffer );
+   }
+
+   @Override public void close () throws IOException {
+      synchronized ( lock ) {
+         if ( head < done.length && ! aborted ) Exporter.log.warning( "Closing ordered file with unfinished parts." );
+         channel.close();
+         pool.clear();
+      }
+   }
+
+   /** UTF-8 writer of a part. */
+   private class Part extends Writer {
+      private final int part;
+      private final CharsetEncoder encoder = UTF_8.newEncoder()
+         .onMalformedInput( CodingErrorAction.REPLACE ).onUnmappableCharacter( CodingErrorAction.REPLACE );
+      private ByteBuffer buffer;
+      private char[] chars = new char[ 8192 ]; // Copy of appended text, which encodes faster than a wrapped CharSequence
+      private boolean closed;
+
+      private Part ( int part ) {
+         this.part = part;
+      }
+
+      @Override public void write ( char[] cbuf, int off, int len ) throws IOException {
+         encode( CharBuffer.wrap( cbuf, off, len ) );
+      }
+
+      @Override public void write ( String str ) throws IOException {
+         append( str );
+      }
+
+      @Override public Writer append ( CharSequence csq ) throws IOException {
+         final int len = csq.length();
+         if ( chars.length < len ) chars = new char[ Math.max( len, chars.length * 2 ) ];
+         if ( csq instanceof String ) ( (String) csq ).getChars( 0, len, chars, 0 );
+         else if ( csq instanceof StringBuilder ) ( (StringBuilder) csq ).getChars( 0, len, chars, 0 );
+         else return super.append( csq );
+         encode( CharBuffer.wrap( chars, 0, len ) );
+         return this;
+      }
+
+      private void encode ( CharBuffer in ) throws IOException {
+         if ( closed ) throw new IOException( "Part closed" );
+         encoder.reset();
+         while ( encoder.encode( in, buffer(), true ).isOverflow() ) submitBuffer();
+         while ( encoder.flush( buffer() ).isOverflow() ) submitBuffer();
+      }
+
+      private ByteBuffer buffer () throws IOException {
+         if ( buffer == null ) buffer = acquire( part );
+         return buffer;
+      }
+
+      private void submitBuffer () throws IOException {
+         submit( part, buffer );
+         buffer = null;
+      }
+
+      @Override public void flush () { }
+
+      @Override public void close () throws IOException {
+         if ( closed ) return;
+         closed = true;
+         if ( buffer != null ) {
+            if ( buffer.position() > 0 ) submit( part, buffer );
+            else synchronized ( lock ) { release( buffer ); }
+            buffer = null;
+         }
+         finish( part );
+      }
+   }
+}
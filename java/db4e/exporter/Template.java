@@ -0,0 +1,72 @@
+package db4e.exporter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text template compiled into literal segments and slots, e.g. "[title]".
+ * Applying a template appends segments and values in one pass, without intermediate strings.
+ * Immutable and thread safe.
+ */
+class Template {
+
+   private final String[] segments; // One more than slots
+   private final int[] slots; // Value index of each slot
+   private final int literalLength;
+
+   private Template ( String[] segments, int[] slots ) {
+      this.segments = segments;
+      this.slots = slots;
+      int len = 0;
+      for ( String segment : segments ) len += segment.length();
+      literalLength = len;
+   }
+
+   /**
+    * Compile a template.
+    * @param text Template text.
+    * @param names Slot names, including brackets, e.g. "[title]".
+    * @return Compiled template.  Values are given in the same order as names.
+    */
+   static Template compile ( String text, String ... names ) {
+      final List<String> segments = new ArrayList<>();
+      final List<Integer> slots = new ArrayList<>();
+      int pos = 0;
+      while ( true ) {
+         int next = -1, slot = -1;
+         for ( int i = 0 ; i < names.length ; i++ ) {
+            final int found = text.indexOf( names[ i ], pos );
+            if ( found >= 0 && ( next < 0 || found < next ) ) {
+               next = found;
+               slot = i;
+            }
+         }
+         if ( next < 0 ) break;
+         segments.add( text.substring( pos, next ) );
+         slots.add( slot );
+         pos = next + names[ slot ].length();
+      }
+      segments.add( text.substring( pos ) );
+      return new Template( segments.toArray( new String[ segments.size() ] ), slots.stream().mapToInt( Integer::intValue ).toArray() );
+   }
+
+   /**
+    * Append the template with slots filled.
+    * @param out Buffer to append to.
+    * @param values Value of each slot name.
+    * @return out
+    */
+   StringBuilder apply ( StringBuilder out, CharSequence ... values ) {
+      int len = literalLength;
+      for ( int slot : slots ) len += values[ slot ].length();
+      out.ensureCapacity( out.length() + len );
+      for ( int i = 0 ; i < slots.length ; i++ )
+         out.append( segments[ i ] ).append( values[ slots[ i ] ] );
+      return out.append( segments[ slots.length ] );
+   }
+
+   /** @return Template with slots filled. */
+   String apply ( CharSequence ... values ) {
+      return apply( new StringBuilder(), values ).toString();
+   }
+}
@@ -0,0 +1,191 @@
+package db4e.exporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Append-only zip file writer whose entries can be compressed concurrently.
+ *
+ * Each opened entry is deflated by its own thread into memory, and is appended to the file as a whole when closed.
+ * Only compressed data is kept, and only until the entry is closed.  Zip64 is used when the file needs it.
+ * Unlike ZipOutputStream, entries do not need to be written one by one.
+ */
+class ZipWriter implements Closeable {
+
+   private static final long MAX_32 = 0xFFFFFFFFL;
+   private static final int MAX_16 = 0xFFFF;
+
+   private final FileChannel channel;
+   private final List<Record> records = new ArrayList<>();
+   private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>(); // Reused for small entries
+   private final int dosTime;
+   private final int level;
+   private long offset = 0;
+
+   /** Written entry, for central directory. */
+   private static class Record {
+      final byte[] name;
+      final int crc;
+      final long compressed, size, offset;
+      Record ( byte[] name, int crc, long compressed, long size, long offset ) {
+         this.name = name;
+         this.crc = crc;
+         this.compressed = compressed;
+         this.size = size;
+         this.offset = offset;
+      }
+   }
+
+   ZipWriter ( Path path ) throws IOException {
+      this( path, Deflater.DEFAULT_COMPRESSION );
+   }
+
+   /**
+    * Create or overwrite a zip file.
+    * @param path File to write to.
+    * @param level Deflate level.
+    */
+   ZipWriter ( Path path, int level ) throws IOException {
+      channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+      this.level = level;
+      final LocalDateTime now = LocalDateTime.now();
+      dosTime = ( ( now.getYear() - 1980 ) << 25 ) | ( now.getMonthValue() << 21 ) | ( now.getDayOfMonth() << 16 )
+              | ( now.getHour() << 11 ) | ( now.getMinute() << 5 ) | ( now.getSecond() >> 1 );
+   }
+
+   /**
+    * Open an entry for writing.  Each entry should be written by one thread.
+    * @param name Path of the entry in zip, e.g. "xl/workbook.xml".
+    * @return Stream of the entry.  Close it to append the entry to the file.
+    */
+   OutputStream open ( String name ) {
+      return new Entry( name );
+   }
+
+   /** Write a whole entry. */
+   void write ( String name, byte[] data ) throws IOException {
+      try ( OutputStream out = open( name ) ) {
+         out.write( data );
+      }
+   }
+
+   private synchronized void append ( byte[] name, int crc, long size, byte[] data, int length ) throws IOException {
+      if ( channel == null || ! channel.isOpen() ) throw new IOException( "Zip closed" );
+      final ByteBuffer header = buffer( 30 + name.length + 20 );
+      final boolean zip64 = size >= MAX_32 || length >= MAX_32;
+      header.putInt( 0x04034b50 ).putShort( (short) ( zip64 ? 45 : 20 ) ).putShort( (short) 0x0800 ).putShort( (short) 8 )
+            .putInt( dosTime ).putInt( crc ).putInt( zip64 ? -1 : length ).putInt( zip64 ? -1 : (int) size )
+            .putShort( (short) name.length ).putShort( (short) ( zip64 ? 20 : 0 ) ).put( name );
+      if ( zip64 ) header.putShort( (short) 1 ).putShort( (short) 16 ).putLong( size ).putLong( length );
+      records.add( new Record( name, crc, length, size, offset ) );
+      header.flip();
+      offset += writeFully( header );
+      offset += writeFully( ByteBuffer.wrap( data, 0, length ) );
+   }
+
+   /** Write central directory and close the file. */
+   @Override public synchronized void close () throws IOException {
+      if ( ! channel.isOpen() ) return;
+      try {
+         final long start = offset;
+         for ( Record r : records ) {
+            final boolean zip64 = r.size >= MAX_32 || r.compressed >= MAX_32 || r.offset >= MAX_32;
+            final ByteBuffer header = buffer( 46 + r.name.length + 28 );
+            header.putInt( 0x02014b50 ).putShort( (short) 45 ).putShort( (short) ( zip64 ? 45 : 20 ) ).putShort( (short) 0x0800 ).putShort( (short) 8 )
+                  .putInt( dosTime ).putInt( r.crc ).putInt( zip64 ? -1 : (int) r.compressed ).putInt( zip64 ? -1 : (int) r.size )
+                  .putShort( (short) r.name.length ).putShort( (short) ( zip64 ? 28 : 0 ) ).putShort( (short) 0 )
+                  .putShort( (short) 0 ).putShort( (short) 0 ).putInt( 0 ).putInt( zip64 ? -1 : (int) r.offset ).put( r.name );
+            if ( zip64 ) header.putShort( (short) 1 ).putShort( (short) 24 ).putLong( r.size ).putLong( r.compressed ).putLong( r.offset );
+            header.flip();
+            offset += writeFully( header );
+         }
+         final long size = offset - start, count = records.size();
+         final ByteBuffer end = buffer( 56 + 20 + 22 );
+         if ( count >= MAX_16 || size >= MAX_32 || start >= MAX_32 ) {
+            end.putInt( 0x06064b50 ).putLong( 44 ).putShort( (short) 45 ).putShort( (short) 45 ).putInt( 0 ).putInt( 0 )
+               .putLong( count ).putLong( count ).putLong( size ).putLong( start );
+            end.putInt( 0x07064b50 ).putInt( 0 ).putLong( offset ).putInt( 1 );
+         }
+         end.putInt( 0x06054b50 ).putShort( (short) 0 ).putShort( (short) 0 )
+            .putShort( (short) Math.min( count, MAX_16 ) ).putShort( (short) Math.min( count, MAX_16 ) )
+            .putInt( (int) Math.min( size, MAX_32 ) ).putInt( (int) Math.min( start, MAX_32 ) ).putShort( (short) 0 );
+         end.flip();
+         writeFully( end );
+      } finally {
+         channel.close();
+         for ( Deflater deflater ; ( deflater = deflaters.poll() ) != null ; ) deflater.end();
+      }
+   }
+
+   private static ByteBuffer buffer ( int size ) {
+      return ByteBuffer.allocate( size ).order( ByteOrder.LITTLE_ENDIAN );
+   }
+
+   private int writeFully ( ByteBuffer buffer ) throws IOException {
+      final int size = buffer.remaining();
+      while ( buffer.hasRemaining() ) channel.write( buffer );
+      return size;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////
+   // Entry
+   /////////////////////////////////////////////////////////////////////////////
+
+   /** Compressed data in memory, with access to the array to avoid a copy. */
+   private static class Data extends ByteArrayOutputStream {
+      Data () { super( 8 * 1024 ); }
+      byte[] array () { return buf; }
+   }
+
+   private class Entry extends OutputStream {
+      private final String name;
+      private final Data data = new Data();
+      private final Deflater deflater;
+      private final CheckedOutputStream out;
+      private boolean closed;
+
+      private Entry ( String name ) {
+         this.name = name;
+         final Deflater pooled = deflaters.poll();
+         deflater = pooled != null ? pooled : new Deflater( level, true );
+         out = new CheckedOutputStream( new DeflaterOutputStream( data, deflater, 8 * 1024 ), new CRC32() );
+      }
+
+      @Override public void write ( int b ) throws IOException {
+         out.write( b );
+      }
+
+      @Override public void write ( byte[] b, int off, int len ) throws IOException {
+         out.write( b, off, len );
+      }
+
+      @Override public void close () throws IOException {
+         if ( closed ) return;
+         closed = true;
+         try {
+            out.close();
+            append( name.getBytes( UTF_8 ), (int) out.getChecksum().getValue(), deflater.getBytesRead(), data.array(), data.size() );
+         } finally {
+            deflater.reset();
+            deflaters.add( deflater );
+         }
+      }
+   }
+}
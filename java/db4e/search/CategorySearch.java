@@ -0,0 +1,136 @@
+package db4e.search;
+
+import db4e.converter.Convert;
+import db4e.data.Category;
+import db4e.data.Entry;
+import db4e.data.ListingTable;
+import db4e.data.NameIndex;
+import db4e.data.TokenIndex;
+import db4e.data.TrigramIndex;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+
+/**
+ * Searchable snapshot of a converted category, with the same indices as export.
+ * Search result is the same as the viewer's search on exported data.  Thread safe.
+ */
+public class CategorySearch {
+
+   public final String id;
+   public final String name;
+   public final NameIndex index; // Lookup name to entry id, null if not mapped
+   public final ListingTable listing; // Same row order as this snapshot
+   private final String[] ids;
+   private final String[] names;
+   private final String[] contents;
+   private final String[] texts;
+   private final Map<String, Integer> rows;
+   private final TokenIndex tokens;
+   private final TrigramIndex trigrams;
+
+   /**
+    * Take a snapshot of a category.
+    * @param category Converted category.
+    * @param converter Converter of the category, used to get full text.
+    */
+   public CategorySearch ( Category category, Convert converter ) {
+      id = category.id;
+      name = category.name;
+      final int size = category.entries.size();
+      ids = new String[ size ];
+      names = new String[ size ];
+      contents = new String[ size ];
+      texts = new String[ size ];
+      rows = new HashMap<>( size * 2 );
+      final TokenIndex.Builder tokenBuilder = new TokenIndex.Builder();
+      final TrigramIndex.Builder trigramBuilder = new TrigramIndex.Builder();
+      synchronized ( category ) {
+         index = category.index;
+         listing = category.listing != null ? category.listing : ListingTable.build( category, null );
+         for ( int i = 0 ; i < size ; i++ ) {
+            final Entry entry = category.entries.get( i );
+            synchronized ( entry ) {
+               ids[ i ] = entry.getId();
+               names[ i ] = entry.getName();
+               contents[ i ] = entry.getContent();
+               texts[ i ] = converter.textData( contents[ i ] );
+            }
+            rows.put( ids[ i ], i );
+            tokenBuilder.add( texts[ i ] );
+            trigramBuilder.add( texts[ i ] );
+         }
+      }
+      tokens = tokenBuilder.build();
+      trigrams = trigramBuilder.build();
+   }
+
+   public int size () { return ids.length; }
+   public String getId ( int row ) { return ids[ row ]; }
+   public String getName ( int row ) { return names[ row ]; }
+   public String getContent ( int row ) { return contents[ row ]; }
+
+   /** @return Row of an entry id, or -1 if not in this category. */
+   public int getRow ( String entryId ) {
+      final Integer row = rows.get( entryId );
+      return row == null ? -1 : row;
+   }
+
+   /**
+    * Search this category.
+    * @param query Parsed query
+    * @param full True to search full text, false to search name only.
+    * @return Matching rows in listing order.
+    */
+   public List<Integer> search ( Query query, boolean full ) {
+      final List<Integer> result = new ArrayList<>();
+      final Matcher matcher = query.regexp.matcher( "" );
+      if ( ! full ) {
+         for ( int i = 0 ; i < names.length ; i++ )
+            if ( matcher.reset( names[ i ] ).find() ) result.add( i );
+         return result;
+      }
+      final BitSet candidates = candidates( query.fragments, tokens::find );
+      final BitSet trigramCandidates = candidates( query.literals, trigrams::find );
+      if ( candidates != null && trigramCandidates != null ) candidates.and( trigramCandidates );
+      final BitSet filter = candidates != null ? candidates : trigramCandidates;
+      for ( int i = 0 ; i < names.length ; i++ ) {
+         if ( ! query.hasExclude && matcher.reset( names[ i ] ).find() ) result.add( i );
+         else if ( filter != null && ! filter.get( i ) ) continue;
+         else if ( matcher.reset( texts[ i ] ).find() ) result.add( i );
+      }
+      return result;
+   }
+
+   /**
+    * Combine index lookups of query groups.
+    * @return Candidate rows, or null if cannot narrow down.
+    */
+   private BitSet candidates ( List<List<List<String>>> groups, Function<String, BitSet> lookup ) {
+      BitSet result = null;
+      for ( List<List<String>> group : groups ) {
+         final BitSet any = new BitSet( ids.length );
+         for ( List<String> term : group ) {
+            BitSet all = null;
+            for ( String part : term ) {
+               final BitSet found = lookup.apply( part );
+               if ( found == null ) continue;
+               if ( all == null ) all = found;
+               else all.and( found );
+            }
+            if ( all == null ) { // Nothing to narrow down
+               all = new BitSet( ids.length );
+               all.set( 0, ids.length );
+            }
+            any.or( all );
+         }
+         if ( result == null ) result = any;
+         else result.and( any );
+      }
+      return result;
+   }
+}
@@ -0,0 +1,165 @@
+package db4e.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parsed search term, same syntax and result as gen_search of the viewer (html/data_search.js).
+ *
+ * Terms are separated by space, can be double quoted, are case insensitive, and are matched as substring.
+ * Leading + matches whole word, leading - excludes, /regex/ is used as is, OR joins two terms, NIL matches empty text,
+ * and * is wildcard.
+ */
+public class Query {
+
+   private static final Pattern regxToken = Pattern.compile( "(^| )/.+/(?= |$)|[+-]?(?:\"[^\"]+\"|\\S+)" );
+   private static final Pattern regxEscape = Pattern.compile( "([()?*+.\\\\{}\\[\\]])" ); // Same as _.escRegx
+   private static final Pattern regxIsRegx = Pattern.compile( "^/.+/$" );
+   private static final Pattern regxIsQuoted = Pattern.compile( "^\"[^\"]*\"$" );
+   private static final Pattern regxNonWord = Pattern.compile( "\\W+" );
+   private static final Pattern regxUnescaped = Pattern.compile( "[|^$]" );
+
+   public final String term;
+   public final Pattern regexp;
+   public final boolean hasExclude;
+   /** Words of include terms: AND of groups, OR of terms, AND of words.  For token index. */
+   public final List<List<List<String>>> fragments;
+   /** Literals (3+ characters) of include terms: AND of groups, OR of terms, AND of literals.  For trigram index. */
+   public final List<List<List<String>>> literals;
+
+   private Query ( String term, String regexp, boolean hasExclude, List<List<List<String>>> fragments, List<List<List<String>>> literals ) {
+      this.term = term;
+      this.regexp = Pattern.compile( regexp, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE );
+      this.hasExclude = hasExclude;
+      this.fragments = Collections.unmodifiableList( fragments );
+      this.literals = Collections.unmodifiableList( literals );
+   }
+
+   /**
+    * Parse a search term.
+    * @param terms Search input
+    * @return Parsed query, or null if input has no condition.
+    * @throws java.util.regex.PatternSyntaxException If a regex term is invalid.
+    */
+   public static Query parse ( String terms ) {
+      final List<String> parts = new ArrayList<>();
+      for ( Matcher m = regxToken.matcher( terms.trim() ) ; m.find() ; ) parts.add( m.group() );
+      while ( ! parts.isEmpty() && parts.get( 0 ).equals( "OR" ) ) parts.remove( 0 );
+      while ( ! parts.isEmpty() && parts.get( parts.size() - 1 ).equals( "OR" ) ) parts.remove( parts.size() - 1 );
+
+      final StringBuilder regx = new StringBuilder( "^" );
+      final List<List<List<String>>> fragments = new ArrayList<>(), literals = new ArrayList<>();
+      boolean hasExclude = false;
+      for ( int i = 0, l = parts.size() ; i < l ; ) {
+         final List<String> addPart = new ArrayList<>( 1 );
+         List<List<String>> addFrag = new ArrayList<>( 1 ), addLit = new ArrayList<>( 1 );
+         do {
+            String term = parts.get( i ).trim();
+            final StringBuilder part = new StringBuilder();
+            boolean isWholeWord = false;
+            if ( term.charAt( 0 ) == '-' ) {
+               term = term.substring( 1 );
+               part.append( "(?!.*" );
+               hasExclude = true;
+               addFrag = addLit = null;
+            } else {
+               if ( term.charAt( 0 ) == '+' ) {
+                  term = term.substring( 1 );
+                  isWholeWord = true;
+               }
+               part.append( "(?=.*" );
+            }
+            if ( ! term.isEmpty() ) {
+               final boolean isRegx = regxIsRegx.matcher( term ).find();
+               // | ^ $ are not escaped and change the regex, so such terms cannot be narrowed down.
+               final boolean isPlain = ! isRegx && ! term.equals( "NIL" ) && ! regxUnescaped.matcher( term ).find();
+               if ( addFrag != null ) {
+                  final List<String> words = new ArrayList<>();
+                  if ( isPlain )
+                     for ( String word : regxNonWord.split( term.toLowerCase( Locale.ROOT ) ) )
+                        if ( ! word.isEmpty() ) words.add( word );
+                  if ( words.isEmpty() ) addFrag = null;
+                  else addFrag.add( words );
+               }
+               if ( addLit != null ) {
+                  final List<String> lits = new ArrayList<>();
+                  if ( isRegx )
+                     lits.addAll( regexLiterals( term.substring( 1, term.length() - 1 ) ) );
+                  else if ( isPlain )
+                     for ( String lit : term.replaceAll( "^\"|\"$", "" ).split( "\\*" ) )
+                        if ( lit.length() >= 3 ) lits.add( lit );
+                  if ( lits.isEmpty() ) addLit = null;
+                  else addLit.add( lits );
+               }
+
+               if ( isRegx ) {
+                  term = term.substring( 1, term.length() - 1 );
+               } else if ( regxIsQuoted.matcher( term ).find() ) {
+                  term = term.length() > 2 ? escape( term.substring( 1, term.length() - 1 ) ) : "";
+                  term = term.replace( "\\*", "\\S+" );
+               } else if ( term.equals( "NIL" ) ) {
+                  term = "";
+                  part.append( "^$" );
+               } else {
+                  if ( term.charAt( 0 ) == '"' ) term = term.substring( 1 );
+                  term = escape( term ).replace( "\\*", "[^\\s<>]+" );
+               }
+               if ( ! term.isEmpty() ) {
+                  if ( isWholeWord ) term = "\\b" + term + "\\b";
+                  part.append( term );
+               }
+               addPart.add( part.append( ".*)" ).toString() );
+            }
+            i++;
+            if ( i >= l || ! parts.get( i ).equals( "OR" ) ) break;
+            do { ++i; } while ( i < l && parts.get( i ).equals( "OR" ) );
+         } while ( i < l );
+
+         if ( addFrag != null && ! addFrag.isEmpty() ) fragments.add( addFrag );
+         if ( addLit != null && ! addLit.isEmpty() ) literals.add( addLit );
+         if ( addPart.size() == 1 )
+            regx.append( addPart.get( 0 ) );
+         else if ( ! addPart.isEmpty() )
+            regx.append( "(?:" ).append( String.join( "|", addPart ) ).append( ')' );
+      }
+      if ( regx.length() == 1 ) return null;
+      return new Query( terms, regx.toString(), hasExclude, fragments, literals );
+   }
+
+   private static String escape ( String txt ) {
+      return regxEscape.matcher( txt ).replaceAll( "\\\\$1" );
+   }
+
+   /**
+    * Extract literals that must appear in any match of a regular expression.
+    * Conservative: gives up on alternation and groups, and drops characters made optional by ?, *, or {.
+    */
+   static List<String> regexLiterals ( String src ) {
+      final List<String> result = new ArrayList<>();
+      if ( src.indexOf( '|' ) >= 0 || src.indexOf( '(' ) >= 0 ) return result;
+      final StringBuilder run = new StringBuilder();
+      for ( int i = 0, l = src.length() ; i < l ; i++ ) {
+         final char c = src.charAt( i );
+         switch ( c ) {
+            case '\\' : i++; break;
+            case '[' : while ( i < l && src.charAt( i ) != ']' ) i++; break;
+            case '?' : case '*' : if ( run.length() > 0 ) run.setLength( run.length() - 1 ); break;
+            case '{' : if ( run.length() > 0 ) run.setLength( run.length() - 1 ); while ( i < l && src.charAt( i ) != '}' ) i++; break;
+            case '+' : case '.' : case '^' : case '$' : case ')' : break;
+            default  : run.append( c ); continue;
+         }
+         if ( run.length() >= 3 ) result.add( run.toString() );
+         run.setLength( 0 );
+      }
+      if ( run.length() >= 3 ) result.add( run.toString() );
+      return result;
+   }
+
+   @Override public String toString () {
+      return regexp.pattern();
+   }
+}